@@ -32,11 +32,15 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.net.InetAddress;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Path("/actions")
@@ -47,12 +51,23 @@ public interface ActionHandler {
     @Produces(MediaType.TEXT_PLAIN)
     Response ping();
 
+    String APPLICATION_NDJSON = "application/x-ndjson";
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, APPLICATION_NDJSON})
+    void executeAction(@QueryParam("action") String action,
+                       @QueryParam("type") String type,
+                       @QueryParam("stream") boolean stream,
+                       ActionRequest request,
+                       @Suspended AsyncResponse response);
+
     @POST
+    @Path("/bulk")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    Response executeAction(@QueryParam("action") String action,
-                          @QueryParam("type") String type,
-                          ActionRequest request) throws Exception;
+    void executeBulk(BulkActionRequest request,
+                     @Suspended AsyncResponse response);
 
     @Data
     class ActionRequest {
@@ -74,4 +89,28 @@ public interface ActionHandler {
         @Builder.Default
         Map<String, Object> data = new HashMap<>();
     }
+
+    @Data
+    class BulkActionRequest {
+        List<BulkActionItem> actions = new ArrayList<>();
+    }
+
+    @Data
+    class BulkActionItem {
+        String actionId;
+        String action;
+        String node;
+        String ipInterface;
+        String kind;
+        Map<String, Object> parameters = new HashMap<>();
+    }
+
+    @Data
+    @Builder
+    class BulkActionResponse {
+        String status;
+        String message;
+        @Builder.Default
+        List<ActionResponse> results = new ArrayList<>();
+    }
 }
\ No newline at end of file
@@ -30,10 +30,16 @@ import org.mapstruct.Mapping;
 import org.mapstruct.factory.Mappers;
 import org.opennms.resync.config.ActionType;
 
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -42,23 +48,40 @@ public class ActionHandlerImpl implements ActionHandler {
     @NonNull
     private final ActionService actionService;
 
+    private Duration requestTimeout = Duration.ofSeconds(60);
+
+    private long retryAfter = 5;
+
+    public void setRequestTimeout(final long requestTimeout) {
+        this.requestTimeout = Duration.ofMillis(requestTimeout);
+    }
+
+    public void setRetryAfter(final long retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
     @Override
     public Response ping() {
         return Response.ok("pong").build();
     }
 
     @Override
-    public Response executeAction(String action, String type, ActionRequest request) throws Exception {
-        log.info("executeAction: action={}, type={}, request={}", action, type, request);
+    public void executeAction(final String action,
+                              final String type,
+                              final boolean stream,
+                              final ActionRequest request,
+                              final AsyncResponse response) {
+        log.info("executeAction: action={}, type={}, stream={}, request={}", action, type, stream, request);
 
         // Validate action parameter
         if (action == null || action.trim().isEmpty()) {
-            return Response.status(Response.Status.BAD_REQUEST)
+            response.resume(Response.status(Response.Status.BAD_REQUEST)
                     .entity(ActionResponse.builder()
                             .status("error")
                             .message("Missing required query parameter: action")
                             .build())
-                    .build();
+                    .build());
+            return;
         }
 
         // Parse action type
@@ -66,12 +89,13 @@ public class ActionHandlerImpl implements ActionHandler {
         try {
             actionType = ActionType.valueOf(action.toUpperCase());
         } catch (IllegalArgumentException e) {
-            return Response.status(Response.Status.BAD_REQUEST)
+            response.resume(Response.status(Response.Status.BAD_REQUEST)
                     .entity(ActionResponse.builder()
                             .status("error")
                             .message("Invalid action type: " + action + ". Must be one of: ACK, UNACK, TERM, UNDOTERM")
                             .build())
-                    .build();
+                    .build());
+            return;
         }
 
         // Parse request type (default to SET)
@@ -82,72 +106,197 @@ public class ActionHandlerImpl implements ActionHandler {
             try {
                 requestType = ActionService.RequestType.valueOf(type.toUpperCase());
             } catch (IllegalArgumentException e) {
-                return Response.status(Response.Status.BAD_REQUEST)
+                response.resume(Response.status(Response.Status.BAD_REQUEST)
                         .entity(ActionResponse.builder()
                                 .status("error")
                                 .message("Invalid request type: " + type + ". Must be one of: SET, GET")
                                 .build())
-                        .build();
+                        .build());
+                return;
             }
         }
 
         // Validate request body
         if (request == null) {
-            return Response.status(Response.Status.BAD_REQUEST)
+            response.resume(Response.status(Response.Status.BAD_REQUEST)
                     .entity(ActionResponse.builder()
                             .status("error")
                             .message("Request body is required")
                             .build())
-                    .build();
+                    .build());
+            return;
         }
 
         if (request.getActionId() == null || request.getActionId().trim().isEmpty()) {
-            return Response.status(Response.Status.BAD_REQUEST)
+            response.resume(Response.status(Response.Status.BAD_REQUEST)
                     .entity(ActionResponse.builder()
                             .status("error")
                             .message("Missing required field: actionId")
                             .build())
-                    .build();
+                    .build());
+            return;
         }
 
         if (request.getNode() == null || request.getNode().trim().isEmpty()) {
-            return Response.status(Response.Status.BAD_REQUEST)
+            response.resume(Response.status(Response.Status.BAD_REQUEST)
                     .entity(ActionResponse.builder()
                             .status("error")
                             .message("Missing required field: node")
                             .build())
-                    .build();
+                    .build());
+            return;
         }
 
+        // Rows are streamed back while walking - the final line carries the action response
+        final var rows = stream && requestType == ActionService.RequestType.GET
+                ? new RowStream(this.requestTimeout)
+                : null;
+
+        final CompletableFuture<Map<String, Object>> resultFuture;
         try {
             final ActionService.Request serviceRequest = ActionRequestMapper.INSTANCE.toServiceRequest(request, actionType, requestType);
-            final Future<Map<String, Object>> resultFuture = this.actionService.executeAction(serviceRequest);
-
-            // Wait for the result
-            final Map<String, Object> result = resultFuture.get();
-
-            final ActionResponse response = ActionResponse.builder()
-                    .status((String) result.get("status"))
-                    .actionId((String) result.get("actionId"))
-                    .actionType((String) result.get("actionType"))
-                    .rowCount((Integer) result.get("rowCount"))
-                    .message("Action executed successfully")
-                    .data(result)
-                    .build();
+            resultFuture = rows != null
+                    ? this.actionService.executeAction(serviceRequest, rows)
+                    : this.actionService.executeAction(serviceRequest);
+        } catch (final Exception e) {
+            response.resume(this.failed(action, request, actionType, e));
+            return;
+        }
 
-            return Response.ok(response).build();
+        if (rows != null) {
+            resultFuture.whenComplete((result, ex) -> rows.complete(ex != null
+                    ? (ActionResponse) this.failed(action, request, actionType, WebhookHandlerImpl.unwrap(ex)).getEntity()
+                    : succeeded(result)));
 
-        } catch (ExecutionException e) {
-            log.error("Action execution failed: action={}, actionId={}", action, request.getActionId(), e);
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity(ActionResponse.builder()
+            response.resume(Response.ok(rows, APPLICATION_NDJSON).build());
+            return;
+        }
+
+        response.setTimeout(this.requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        response.setTimeoutHandler(r -> r.resume(Response.status(Response.Status.GATEWAY_TIMEOUT)
+                .entity(ActionResponse.builder()
+                        .status("error")
+                        .message("Action execution timed out")
+                        .actionId(request.getActionId())
+                        .actionType(actionType.name())
+                        .build())
+                .build()));
+
+        resultFuture.whenComplete((result, ex) -> {
+            if (ex != null) {
+                response.resume(this.failed(action, request, actionType, WebhookHandlerImpl.unwrap(ex)));
+                return;
+            }
+
+            response.resume(Response.ok(succeeded(result)).build());
+        });
+    }
+
+    private static ActionResponse succeeded(final Map<String, Object> result) {
+        return ActionResponse.builder()
+                .status((String) result.get("status"))
+                .actionId((String) result.get("actionId"))
+                .actionType((String) result.get("actionType"))
+                .rowCount((Integer) result.get("rowCount"))
+                .message("Action executed successfully")
+                .data(result)
+                .build();
+    }
+
+    @Override
+    public void executeBulk(final BulkActionRequest request, final AsyncResponse response) {
+        log.info("executeBulk: actions={}", request != null ? request.getActions().size() : 0);
+
+        if (request == null || request.getActions() == null || request.getActions().isEmpty()) {
+            response.resume(Response.status(Response.Status.BAD_REQUEST)
+                    .entity(BulkActionResponse.builder()
                             .status("error")
-                            .message("Action execution failed: " + e.getCause().getMessage())
-                            .actionId(request.getActionId())
-                            .actionType(actionType.name())
+                            .message("Request body with at least one action is required")
                             .build())
-                    .build();
-        } catch (IllegalArgumentException e) {
+                    .build());
+            return;
+        }
+
+        final var requests = new ArrayList<ActionService.Request>(request.getActions().size());
+        for (int i = 0; i < request.getActions().size(); i++) {
+            final var item = request.getActions().get(i);
+
+            final String invalid;
+            if (item.getActionId() == null || item.getActionId().trim().isEmpty()) {
+                invalid = "Missing required field: actionId";
+            } else if (item.getNode() == null || item.getNode().trim().isEmpty()) {
+                invalid = "Missing required field: node";
+            } else if (item.getAction() == null || Arrays.stream(ActionType.values()).noneMatch(t -> t.name().equalsIgnoreCase(item.getAction()))) {
+                invalid = "Invalid action type: " + item.getAction() + ". Must be one of: ACK, UNACK, TERM, UNDOTERM";
+            } else {
+                invalid = null;
+            }
+
+            if (invalid != null) {
+                response.resume(Response.status(Response.Status.BAD_REQUEST)
+                        .entity(BulkActionResponse.builder()
+                                .status("error")
+                                .message("Invalid action at index " + i + ": " + invalid)
+                                .build())
+                        .build());
+                return;
+            }
+
+            requests.add(ActionRequestMapper.INSTANCE.toServiceRequest(item,
+                    ActionType.valueOf(item.getAction().toUpperCase()),
+                    ActionService.RequestType.SET));
+        }
+
+        response.setTimeout(this.requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        response.setTimeoutHandler(r -> r.resume(Response.status(Response.Status.GATEWAY_TIMEOUT)
+                .entity(BulkActionResponse.builder()
+                        .status("error")
+                        .message("Bulk action execution timed out")
+                        .build())
+                .build()));
+
+        this.actionService.executeBulk(requests).whenComplete((results, ex) -> {
+            if (ex != null) {
+                log.error("Bulk action execution failed", ex);
+                response.resume(Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                        .entity(BulkActionResponse.builder()
+                                .status("error")
+                                .message("Bulk action execution failed: " + WebhookHandlerImpl.unwrap(ex).getMessage())
+                                .build())
+                        .build());
+                return;
+            }
+
+            final var responses = new ArrayList<ActionResponse>(results.size());
+            for (final var result : results) {
+                if ("success".equals(result.get("status"))) {
+                    responses.add(succeeded(result));
+                } else {
+                    responses.add(ActionResponse.builder()
+                            .status("error")
+                            .message((String) result.get("message"))
+                            .actionId((String) result.get("actionId"))
+                            .actionType((String) result.get("actionType"))
+                            .build());
+                }
+            }
+
+            final var failed = responses.stream().filter(r -> !"success".equals(r.getStatus())).count();
+
+            response.resume(Response.ok(BulkActionResponse.builder()
+                    .status(failed == 0 ? "success" : failed == responses.size() ? "error" : "partial")
+                    .message((responses.size() - failed) + " of " + responses.size() + " actions executed successfully")
+                    .results(responses)
+                    .build()).build());
+        });
+    }
+
+    private Response failed(final String action, final ActionRequest request, final ActionType actionType, final Throwable e) {
+        if (e instanceof RejectedExecutionException) {
+            return this.unavailable(request, actionType, e.getMessage());
+        }
+
+        if (e instanceof IllegalArgumentException) {
             log.error("Invalid configuration: action={}, actionId={}", action, request.getActionId(), e);
             return Response.status(Response.Status.BAD_REQUEST)
                     .entity(ActionResponse.builder()
@@ -157,17 +306,29 @@ public class ActionHandlerImpl implements ActionHandler {
                             .actionType(actionType.name())
                             .build())
                     .build();
-        } catch (Exception e) {
-            log.error("Unexpected error: action={}, actionId={}", action, request.getActionId(), e);
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity(ActionResponse.builder()
-                            .status("error")
-                            .message("Unexpected error: " + e.getMessage())
-                            .actionId(request.getActionId())
-                            .actionType(actionType.name())
-                            .build())
-                    .build();
         }
+
+        log.error("Action execution failed: action={}, actionId={}", action, request.getActionId(), e);
+        return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(ActionResponse.builder()
+                        .status("error")
+                        .message("Action execution failed: " + e.getMessage())
+                        .actionId(request.getActionId())
+                        .actionType(actionType.name())
+                        .build())
+                .build();
+    }
+
+    private Response unavailable(final ActionRequest request, final ActionType actionType, final String message) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, this.retryAfter)
+                .entity(ActionResponse.builder()
+                        .status("error")
+                        .message(message)
+                        .actionId(request.getActionId())
+                        .actionType(actionType.name())
+                        .build())
+                .build();
     }
 
     @Mapper(uses = ActionService.ActionMapper.class)
@@ -182,5 +343,14 @@ public class ActionHandlerImpl implements ActionHandler {
         @Mapping(target = "actionType", source = "actionType")
         @Mapping(target = "requestType", source = "requestType")
         ActionService.Request toServiceRequest(ActionHandler.ActionRequest request, ActionType actionType, ActionService.RequestType requestType);
+
+        @Mapping(target = "nodeCriteria", source = "request.node")
+        @Mapping(target = "ipInterface", source = "request.ipInterface")
+        @Mapping(target = "actionId", source = "request.actionId")
+        @Mapping(target = "kind", source = "request.kind")
+        @Mapping(target = "parameters", source = "request.parameters")
+        @Mapping(target = "actionType", source = "actionType")
+        @Mapping(target = "requestType", source = "requestType")
+        ActionService.Request toServiceRequest(ActionHandler.BulkActionItem request, ActionType actionType, ActionService.RequestType requestType);
     }
 }
\ No newline at end of file
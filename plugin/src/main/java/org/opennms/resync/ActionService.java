@@ -22,6 +22,9 @@
 
 package org.opennms.resync;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -35,6 +38,7 @@ import org.opennms.integration.api.v1.model.Node;
 import org.opennms.netmgt.config.api.SnmpAgentConfigFactory;
 import org.opennms.netmgt.events.api.EventForwarder;
 import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpRowResult;
 import org.opennms.netmgt.snmp.SnmpValue;
@@ -43,20 +47,31 @@ import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
 import org.opennms.netmgt.snmp.snmp4j.Snmp4JValueFactory;
 import org.opennms.resync.config.ActionConfigs;
 import org.opennms.resync.config.ActionType;
+import org.opennms.resync.flow.PriorityScheduler;
+import org.opennms.resync.flow.RateLimiter;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static org.opennms.resync.constants.Events.EVENT_SOURCE;
@@ -81,6 +96,51 @@ public class ActionService {
     @NonNull
     private final ActionConfigs actionConfigs;
 
+    @NonNull
+    private final MetricRegistry metrics;
+
+    @NonNull
+    private final RateLimiter rateLimiter;
+
+    @NonNull
+    private final PriorityScheduler scheduler;
+
+    private static final int DEFAULT_MAX_VARS_PER_PDU = 10;
+
+    private Duration actionCacheTtl = Duration.ofMinutes(10);
+
+    private long actionCacheSize = 10000;
+
+    // Recent executions by action ID
+    private Cache<String, CompletableFuture<Map<String, Object>>> executions;
+
+    private Duration walkCacheTtl = Duration.ofSeconds(5);
+
+    private long walkCacheMaxRows = 100000;
+
+    // Recently walked tables and walks in progress
+    private Cache<WalkKey, List<Map<String, String>>> walkResults;
+    private final Map<WalkKey, CompletableFuture<List<Map<String, String>>>> walksInFlight = new ConcurrentHashMap<>();
+
+    // Replays cached and shared walks without holding up the request or the SNMP client thread
+    private ExecutorService replays;
+
+    public void setActionCacheTtl(final long actionCacheTtl) {
+        this.actionCacheTtl = Duration.ofMillis(actionCacheTtl);
+    }
+
+    public void setActionCacheSize(final long actionCacheSize) {
+        this.actionCacheSize = actionCacheSize;
+    }
+
+    public void setWalkCacheTtl(final long walkCacheTtl) {
+        this.walkCacheTtl = Duration.ofMillis(walkCacheTtl);
+    }
+
+    public void setWalkCacheMaxRows(final long walkCacheMaxRows) {
+        this.walkCacheMaxRows = walkCacheMaxRows;
+    }
+
     @Value
     @Builder
     public static class Request {
@@ -111,21 +171,287 @@ public class ActionService {
         GET
     }
 
-    public Future<Map<String, Object>> executeAction(final Request request) throws IOException {
+    /**
+     * Receives the walked rows of a GET request.
+     */
+    public interface RowConsumer extends Consumer<Map<String, String>> {
+
+        /**
+         * Receives a row replayed from memory. Unlike the walk, replays run on their own thread and may be held back
+         * until the consumer has room for the row.
+         */
+        default void replay(final Map<String, String> row) throws InterruptedException {
+            this.accept(row);
+        }
+    }
+
+    public void start() {
+        this.replays = Executors.newCachedThreadPool(runnable -> new Thread(runnable, "resync-action-replay"));
+
+        this.executions = CacheBuilder.newBuilder()
+                .expireAfterWrite(this.actionCacheTtl)
+                .maximumSize(this.actionCacheSize)
+                .build();
+
+        this.walkResults = CacheBuilder.newBuilder()
+                .expireAfterWrite(this.walkCacheTtl)
+                .maximumWeight(this.walkCacheMaxRows)
+                .weigher((WalkKey key, List<Map<String, String>> rows) -> rows.size())
+                .build();
+    }
+
+    public void stop() {
+        if (this.replays != null) {
+            this.replays.shutdownNow();
+        }
+    }
+
+    /**
+     * Executes the action once per action ID.
+     *
+     * Repeated requests for a recent action ID share the outcome of the first execution, including executions still
+     * in flight. Failed executions are forgotten so they can be retried.
+     */
+    public CompletableFuture<Map<String, Object>> executeAction(final Request request) throws IOException {
+        final var key = request.requestType + ":" + request.actionType + ":" + request.actionId;
+
+        final var execution = new CompletableFuture<Map<String, Object>>();
+        final var existing = this.executions.asMap().putIfAbsent(key, execution);
+        if (existing != null) {
+            log.info("executeAction: duplicate: action={}, actionId={}", request.actionType, request.actionId);
+            this.metrics.meter("actions.duplicate").mark();
+            return existing;
+        }
+
+        final CompletableFuture<Map<String, Object>> result;
+        try {
+            result = this.executeAction(request, row -> {});
+        } catch (final IOException | RuntimeException e) {
+            this.executions.asMap().remove(key, execution);
+            throw e;
+        }
+
+        result.whenComplete((ok, ex) -> {
+            if (ex != null) {
+                this.executions.asMap().remove(key, execution);
+                execution.completeExceptionally(ex);
+            } else {
+                execution.complete(ok);
+            }
+        });
+
+        return execution;
+    }
+
+    /**
+     * Executes the action without checking for earlier executions of the same action ID.
+     *
+     * @param rows receives each walked row of a GET request while the walk progresses
+     */
+    public CompletableFuture<Map<String, Object>> executeAction(final Request request,
+                                                                final RowConsumer rows) throws IOException {
         final var node = this.findNode(request.nodeCriteria);
 
         final var config = this.actionConfigs.getActionConfig(node.getLabel(), request.kind, request.actionType);
 
         switch (request.requestType) {
             case SET: return this.executeSet(request, node, config);
-            case GET: return this.executeGet(request, node, config);
+            case GET: return this.executeGet(request, node, config, rows);
             default: throw new IllegalStateException("Unsupported request type: " + request.requestType);
         }
     }
 
-    private Future<Map<String, Object>> executeSet(final Request request, final Node node, final ActionConfigs.Entry config) throws IOException {
+    private CompletableFuture<Map<String, Object>> executeSet(final Request request, final Node node, final ActionConfigs.Entry config) throws IOException {
         log.info("executeAction: SET: action={}, node={}, actionId={}", request.actionType, node.getLabel(), request.actionId);
 
+        final var operation = this.prepareSet(request, node, config);
+
+        final var result = new CompletableFuture<Map<String, Object>>();
+
+        final var response = this.scheduler.submit(PriorityScheduler.Lane.INTERACTIVE, () -> this.acquire(List.of(operation)), () -> {
+                    final var timer = this.metrics.timer(MetricRegistry.name("snmp.set", config.getKind(), node.getLocation())).time();
+
+                    return this.snmpClient.set(operation.agent, operation.oids.toArray(SnmpObjId[]::new), operation.vals.toArray(SnmpValue[]::new))
+                            .withLocation(node.getLocation())
+                            .execute()
+                            .whenComplete((ok, ex) -> timer.stop());
+                });
+
+        response.whenComplete((ok, ex) -> {
+            // Even a failed SET may have been applied partially
+            this.invalidateWalks(node.getId());
+
+            if (ex != null) {
+                log.error("Action SET failed: action={}, node={}, actionId={}", request.actionType, node.getLabel(), request.actionId, ex);
+                result.completeExceptionally(ex);
+            } else {
+                log.info("Action SET completed: action={}, node={}, actionId={}", request.actionType, node.getLabel(), request.actionId);
+                result.complete(success(request));
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Executes many SET actions, packing the varbinds of all actions targeting the same agent into as few PDUs as the
+     * agent allows.
+     *
+     * Each action is executed at most once per action ID like a single action. The varbinds of a single action are
+     * never split across PDUs.
+     *
+     * @return the outcome of each action in request order
+     */
+    public CompletableFuture<List<Map<String, Object>>> executeBulk(final List<Request> requests) {
+        final var executions = new ArrayList<CompletableFuture<Map<String, Object>>>(requests.size());
+
+        // Pending operations grouped by agent - the order of the actions is kept within each agent
+        final var agents = new LinkedHashMap<String, List<SetOperation>>();
+
+        for (final var request : requests) {
+            final var key = request.requestType + ":" + request.actionType + ":" + request.actionId;
+
+            final var execution = new CompletableFuture<Map<String, Object>>();
+            final var existing = this.executions.asMap().putIfAbsent(key, execution);
+            if (existing != null) {
+                this.metrics.meter("actions.duplicate").mark();
+                executions.add(existing);
+                continue;
+            }
+
+            executions.add(execution);
+
+            execution.whenComplete((ok, ex) -> {
+                if (ex != null) {
+                    this.executions.asMap().remove(key, execution);
+                }
+            });
+
+            try {
+                if (request.requestType != RequestType.SET) {
+                    throw new IllegalArgumentException("Only SET requests can be executed in bulk");
+                }
+
+                final var node = this.findNode(request.nodeCriteria);
+                final var config = this.actionConfigs.getActionConfig(node.getLabel(), request.kind, request.actionType);
+
+                final var operation = this.prepareSet(request, node, config);
+                operation.execution = execution;
+
+                agents.computeIfAbsent(operation.location + "/" + InetAddressUtils.str(operation.agent.getAddress()) + ":" + operation.agent.getPort(),
+                        k -> new ArrayList<>()).add(operation);
+
+            } catch (final Exception e) {
+                execution.completeExceptionally(e);
+            }
+        }
+
+        for (final var operations : agents.values()) {
+            final var agent = operations.get(0).agent;
+            final var maxVarsPerPdu = agent.getMaxVarsPerPdu() > 0
+                    ? agent.getMaxVarsPerPdu()
+                    : DEFAULT_MAX_VARS_PER_PDU;
+
+            final var pdu = new ArrayList<SetOperation>();
+            final var pduOids = new HashSet<SnmpObjId>();
+
+            for (final var operation : operations) {
+                // Start a new PDU if the action does not fit or sets an OID already set in this PDU
+                if (!pdu.isEmpty() && (pduOids.size() + operation.oids.size() > maxVarsPerPdu
+                                       || operation.oids.stream().anyMatch(pduOids::contains))) {
+                    this.executePdu(pdu);
+                    pdu.clear();
+                    pduOids.clear();
+                }
+
+                pdu.add(operation);
+                pduOids.addAll(operation.oids);
+            }
+
+            if (!pdu.isEmpty()) {
+                this.executePdu(pdu);
+            }
+        }
+
+        final var results = new ArrayList<CompletableFuture<Map<String, Object>>>(executions.size());
+        for (int i = 0; i < executions.size(); i++) {
+            final var request = requests.get(i);
+            results.add(executions.get(i).handle((ok, ex) -> {
+                if (ex == null) {
+                    return ok;
+                }
+
+                final var cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+
+                final Map<String, Object> resultMap = new HashMap<>();
+                resultMap.put("status", "error");
+                resultMap.put("actionId", request.actionId);
+                resultMap.put("actionType", request.actionType.name());
+                resultMap.put("message", cause.getMessage());
+                return resultMap;
+            }));
+        }
+
+        return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> results.stream()
+                        .map(CompletableFuture::join)
+                        .collect(Collectors.toList()));
+    }
+
+    private void executePdu(final List<SetOperation> operations) {
+        final var first = operations.get(0);
+
+        final var oids = new ArrayList<SnmpObjId>();
+        final var vals = new ArrayList<SnmpValue>();
+        for (final var operation : operations) {
+            oids.addAll(operation.oids);
+            vals.addAll(operation.vals);
+        }
+
+        // Copy the list as the caller reuses it for the next PDU
+        final var pending = List.copyOf(operations);
+
+        log.info("executeBulk: SET: agent={}, actions={}, varbinds={}", first.agent.getAddress(), pending.size(), oids.size());
+
+        this.metrics.histogram("actions.bulk.actions-per-pdu").update(pending.size());
+
+        this.scheduler.submit(PriorityScheduler.Lane.INTERACTIVE, () -> this.acquire(pending), () -> {
+                    final var timer = this.metrics.timer(MetricRegistry.name("snmp.set", "bulk", first.location)).time();
+
+                    return this.snmpClient.set(first.agent, oids.toArray(SnmpObjId[]::new), vals.toArray(SnmpValue[]::new))
+                            .withLocation(first.location)
+                            .execute()
+                            .whenComplete((ok, ex) -> timer.stop());
+                })
+                .whenComplete((ok, ex) -> {
+                    for (final var operation : pending) {
+                        this.invalidateWalks(operation.nodeId);
+
+                        if (ex != null) {
+                            log.error("Action SET failed: action={}, actionId={}", operation.request.actionType, operation.request.actionId, ex);
+                            operation.execution.completeExceptionally(ex);
+                        } else {
+                            operation.execution.complete(success(operation.request));
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Reserves a single SET against the agent and every kind of the packed operations.
+     */
+    private CompletableFuture<Void> acquire(final List<SetOperation> operations) {
+        final var kinds = new LinkedHashMap<String, RateLimiter.Kind>();
+        for (final var operation : operations) {
+            final var name = "action." + operation.config.getKind();
+            kinds.putIfAbsent(name, new RateLimiter.Kind(name, operation.config.getRateLimit(), operation.config.getRateBurst()));
+        }
+
+        final var first = operations.get(0);
+        return this.rateLimiter.acquire(first.location, first.agent, kinds.values());
+    }
+
+    private SetOperation prepareSet(final Request request, final Node node, final ActionConfigs.Entry config) {
         final var iface = (request.ipInterface != null
                 ? node.getInterfaceByIp(request.ipInterface)
                 : node.getIpInterfaces().stream().findFirst())
@@ -137,11 +463,8 @@ public class ActionService {
         parameters.putAll(config.getParameters());
         parameters.putAll(request.getParameters());
 
-        final var result = new CompletableFuture<Map<String, Object>>();
-
         // Resolve all columns to attributes
-        final var oids = new ArrayList<SnmpObjId>(config.getColumns().size());
-        final var vals = new ArrayList<SnmpValue>(config.getColumns().size());
+        final var operation = new SetOperation(request, config, node.getId(), agent, node.getLocation());
 
         for (final var e : config.getColumns().entrySet()) {
             var value = parameters.get(e.getKey());
@@ -149,32 +472,25 @@ public class ActionService {
                 throw new IllegalArgumentException("No value defined for parameter: " + e.getKey());
             }
 
-            oids.add(e.getValue());
-            vals.add(ActionMapper.INSTANCE.snmpValue(value));
+            operation.oids.add(e.getValue());
+            operation.vals.add(ActionMapper.INSTANCE.snmpValue(value));
         }
 
-        final var response = this.snmpClient.set(agent, oids.toArray(SnmpObjId[]::new), vals.toArray(SnmpValue[]::new))
-                .withLocation(node.getLocation())
-                .execute();
-
-        response.whenComplete((ok, ex) -> {
-            if (ex != null) {
-                log.error("Action SET failed: action={}, node={}, actionId={}", request.actionType, node.getLabel(), request.actionId, ex);
-                result.completeExceptionally(ex);
-            } else {
-                log.info("Action SET completed: action={}, node={}, actionId={}", request.actionType, node.getLabel(), request.actionId);
-                final Map<String, Object> resultMap = new HashMap<>();
-                resultMap.put("status", "success");
-                resultMap.put("actionId", request.actionId);
-                resultMap.put("actionType", request.actionType.name());
-                result.complete(resultMap);
-            }
-        });
+        return operation;
+    }
 
-        return result;
+    private static Map<String, Object> success(final Request request) {
+        final Map<String, Object> resultMap = new HashMap<>();
+        resultMap.put("status", "success");
+        resultMap.put("actionId", request.actionId);
+        resultMap.put("actionType", request.actionType.name());
+        return resultMap;
     }
 
-    private Future<Map<String, Object>> executeGet(final Request request, final Node node, final ActionConfigs.Entry config) throws IOException {
+    private CompletableFuture<Map<String, Object>> executeGet(final Request request,
+                                                              final Node node,
+                                                              final ActionConfigs.Entry config,
+                                                              final RowConsumer rows) throws IOException {
         log.info("executeAction: GET: action={}, node={}, actionId={}", request.actionType, node.getLabel(), request.actionId);
 
         final var iface = (request.ipInterface != null
@@ -188,47 +504,167 @@ public class ActionService {
         parameters.putAll(config.getParameters());
         parameters.putAll(request.getParameters());
 
-        return this.snmpClient.walk(agent, new ActionTableTracker(config))
-                .withDescription("action-get")
-                .withLocation(node.getLocation())
-                .execute()
-                .thenApply(tracker -> {
-                    log.info("Action GET walk completed: action={}, node={}, actionId={}, rows={}",
-                            request.actionType, node.getLabel(), request.actionId, tracker.results.size());
-
-                    // Generate event for each result row
-                    for (final var result : tracker.results) {
-                        final var event = new EventBuilder()
-                                .setTime(new Date())
-                                .setSource(EVENT_SOURCE)
-                                .setUei(UEI_ACTION_RESPONSE)
-                                .setNodeid(node.getId())
-                                .setInterface(iface.getIpAddress())
-                                .setService(config.getKind());
-
-                        event.addParam("actionId", request.actionId);
-                        event.addParam("actionType", request.actionType.name());
-
-                        // Apply columns from SNMP walk
-                        for (final var key : config.getColumns().keySet()) {
-                            event.addParam(key, result.get(key));
-                        }
+        // Generate event for each result row as soon as it is walked
+        final Consumer<Map<String, String>> events = result -> {
+            final var event = new EventBuilder()
+                    .setTime(new Date())
+                    .setSource(EVENT_SOURCE)
+                    .setUei(UEI_ACTION_RESPONSE)
+                    .setNodeid(node.getId())
+                    .setInterface(iface.getIpAddress())
+                    .setService(config.getKind());
+
+            event.addParam("actionId", request.actionId);
+            event.addParam("actionType", request.actionType.name());
+
+            // Apply columns from SNMP walk
+            for (final var key : config.getColumns().keySet()) {
+                event.addParam(key, result.get(key));
+            }
+
+            // Apply parameters
+            parameters.forEach((k, v) -> event.addParam(k, v.toString()));
+
+            this.eventForwarder.sendNowSync(event.getEvent());
+        };
+
+        final var key = new WalkKey(node.getId(), config.getKind(), request.actionType);
+
+        // Replay a recent walk of the same table
+        final var cached = this.walkResults.getIfPresent(key);
+        if (cached != null) {
+            log.info("Action GET served from cache: action={}, node={}, actionId={}, rows={}",
+                    request.actionType, node.getLabel(), request.actionId, cached.size());
+            this.metrics.meter("actions.walk.cached").mark();
 
-                        // Apply parameters
-                        parameters.forEach((k, v) -> event.addParam(k, v.toString()));
+            return this.replay(cached, events, rows)
+                    .thenApply(ignored -> walked(request, cached.size()));
+        }
+
+        // Share a walk of the same table which is already running
+        final var walk = new CompletableFuture<List<Map<String, String>>>();
+        final var running = this.walksInFlight.putIfAbsent(key, walk);
+        if (running != null) {
+            log.info("Action GET joins running walk: action={}, node={}, actionId={}", request.actionType, node.getLabel(), request.actionId);
+            this.metrics.meter("actions.walk.shared").mark();
+
+            return running.thenCompose(results -> {
+                // The running walk was too large to be kept - walk on our own
+                if (results == null) {
+                    return this.walk(request, node, config, agent, events, rows, null, null);
+                }
+
+                return this.replay(results, events, rows)
+                        .thenApply(ignored -> walked(request, results.size()));
+            });
+        }
+
+        return this.walk(request, node, config, agent, events, rows, key, walk);
+    }
 
-                        this.eventForwarder.sendNowSync(event.getEvent());
+    /**
+     * Walks the table, emitting each row as soon as it is received.
+     *
+     * If the walk is shared, the rows are kept to complete the shared walk and fill the cache. Walks with more rows
+     * than the cache can hold stop keeping rows and complete the shared walk without results.
+     */
+    private CompletableFuture<Map<String, Object>> walk(final Request request,
+                                                        final Node node,
+                                                        final ActionConfigs.Entry config,
+                                                        final SnmpAgentConfig agent,
+                                                        final Consumer<Map<String, String>> events,
+                                                        final RowConsumer rows,
+                                                        final WalkKey key,
+                                                        final CompletableFuture<List<Map<String, String>>> walk) {
+        final var results = walk != null
+                ? new ArrayList<Map<String, String>>()
+                : null;
+        final var overflow = new AtomicBoolean(walk == null);
+
+        return this.scheduler.submit(PriorityScheduler.Lane.INTERACTIVE, () -> this.rateLimiter.acquire(node.getLocation(), agent, "action." + config.getKind(), config.getRateLimit(), config.getRateBurst()), () -> {
+                    final var timer = this.metrics.timer(MetricRegistry.name("snmp.walk", config.getKind(), node.getLocation())).time();
+
+                    return this.snmpClient.walk(agent, new ActionTableTracker(config, result -> {
+                                if (!overflow.get()) {
+                                    if (results.size() < this.walkCacheMaxRows) {
+                                        results.add(result);
+                                    } else {
+                                        // Too large to be cached - stop sharing the walk and drop the kept rows
+                                        overflow.set(true);
+                                        results.clear();
+                                        results.trimToSize();
+                                        this.walksInFlight.remove(key, walk);
+                                    }
+                                }
+
+                                events.accept(result);
+                                rows.accept(result);
+                            }))
+                            .withDescription("action-get")
+                            .withLocation(node.getLocation())
+                            .execute()
+                            .whenComplete((tracker, ex) -> timer.stop());
+                })
+                .whenComplete((tracker, ex) -> {
+                    if (walk == null) {
+                        return;
                     }
 
-                    final Map<String, Object> resultMap = new HashMap<>();
-                    resultMap.put("status", "success");
-                    resultMap.put("actionId", request.actionId);
-                    resultMap.put("actionType", request.actionType.name());
-                    resultMap.put("rowCount", tracker.results.size());
-                    return resultMap;
+                    // Only cache the result if the node was not changed while walking
+                    final var current = this.walksInFlight.remove(key, walk);
+                    if (ex != null) {
+                        walk.completeExceptionally(ex);
+                    } else if (overflow.get()) {
+                        walk.complete(null);
+                    } else {
+                        final var unmodifiable = Collections.unmodifiableList(results);
+                        if (current) {
+                            this.walkResults.put(key, unmodifiable);
+                        }
+                        walk.complete(unmodifiable);
+                    }
+                })
+                .thenApply(tracker -> {
+                    log.info("Action GET walk completed: action={}, node={}, actionId={}, rows={}",
+                            request.actionType, node.getLabel(), request.actionId, tracker.rowCount);
+
+                    return walked(request, tracker.rowCount);
                 });
     }
 
+    /**
+     * Emits the rows of an earlier walk on a replay thread, so the response can start before the rows are replayed.
+     */
+    private CompletableFuture<Void> replay(final List<Map<String, String>> results,
+                                           final Consumer<Map<String, String>> events,
+                                           final RowConsumer rows) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                for (final var result : results) {
+                    events.accept(result);
+                    rows.replay(result);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }, this.replays);
+    }
+
+    /**
+     * Drops all cached and running walks of the node as its tables have been changed.
+     */
+    private void invalidateWalks(final long nodeId) {
+        this.walkResults.asMap().keySet().removeIf(key -> key.nodeId == nodeId);
+        this.walksInFlight.keySet().removeIf(key -> key.nodeId == nodeId);
+    }
+
+    private static Map<String, Object> walked(final Request request, final int rowCount) {
+        final Map<String, Object> resultMap = success(request);
+        resultMap.put("rowCount", rowCount);
+        return resultMap;
+    }
+
     private Node findNode(final String nodeCriteria) {
         Node node;
 
@@ -245,21 +681,61 @@ public class ActionService {
         throw new NoSuchElementException("No such node: " + nodeCriteria);
     }
 
+    @Value
+    private static class WalkKey {
+        long nodeId;
+        String kind;
+        ActionType actionType;
+    }
+
+    private static class SetOperation {
+        private final Request request;
+        private final ActionConfigs.Entry config;
+        private final long nodeId;
+        private final SnmpAgentConfig agent;
+        private final String location;
+
+        // The following two lists are co-indexed
+        private final List<SnmpObjId> oids;
+        private final List<SnmpValue> vals;
+
+        private CompletableFuture<Map<String, Object>> execution;
+
+        private SetOperation(final Request request,
+                             final ActionConfigs.Entry config,
+                             final long nodeId,
+                             final SnmpAgentConfig agent,
+                             final String location) {
+            this.request = request;
+            this.config = config;
+            this.nodeId = nodeId;
+            this.agent = agent;
+            this.location = location;
+            this.oids = new ArrayList<>(config.getColumns().size());
+            this.vals = new ArrayList<>(config.getColumns().size());
+        }
+    }
+
     private class ActionTableTracker extends TableTracker {
-        public List<Map<String, String>> results = new ArrayList<>();
+        public int rowCount = 0;
 
         private final ActionConfigs.Entry config;
 
-        public ActionTableTracker(final ActionConfigs.Entry config) {
+        private final Consumer<Map<String, String>> rows;
+
+        public ActionTableTracker(final ActionConfigs.Entry config, final Consumer<Map<String, String>> rows) {
             super(config.getColumns().values().toArray(SnmpObjId[]::new));
 
             this.config = config;
+            this.rows = rows;
         }
 
         @Override
         public void rowCompleted(final SnmpRowResult row) {
             super.rowCompleted(row);
 
+            ActionService.this.metrics.meter("snmp.rows").mark();
+
             final var result = this.config.getColumns()
                     .entrySet().stream()
                     .map(e -> {
@@ -273,7 +749,8 @@ public class ActionService {
                     .filter(Objects::nonNull)
                     .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
 
-            this.results.add(result);
+            this.rowCount++;
+            this.rows.accept(result);
         }
     }
 
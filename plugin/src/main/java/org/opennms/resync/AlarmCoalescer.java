@@ -0,0 +1,178 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync;
+
+import org.opennms.resync.proto.Resync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces the alarms of a session by reduction key.
+ *
+ * Repeated alarms are merged into the first one, keeping the state of the last one, the accumulated count and the
+ * earliest and latest event time. Alarms are held in the order they were last seen in an open-addressing hash set
+ * which stores the hash and the index of each alarm. A repeated alarm moves to the end, so it is passed on after any
+ * alarm received in between, like a clear of another alarm referring to it.
+ */
+public class AlarmCoalescer {
+
+    // Alarms in the order they were last seen, moved alarms leave null behind
+    private final ArrayList<Resync.Alarm> alarms = new ArrayList<>();
+
+    private int size = 0;
+
+    // Index of the alarm plus one per slot, zero marks empty slots
+    private int[] slots = new int[64];
+
+    // Hash of the reduction key per slot
+    private int[] hashes = new int[64];
+
+    private long oldest = 0L;
+
+    /**
+     * Adds an alarm.
+     *
+     * @return {@code false} if the alarm has no reduction key and can not be coalesced
+     */
+    public boolean add(final Resync.Alarm alarm) {
+        final var key = alarm.getReductionKey();
+        if (key.isEmpty()) {
+            return false;
+        }
+
+        final var hash = hash(key);
+        final var mask = this.slots.length - 1;
+
+        var slot = hash & mask;
+        while (this.slots[slot] != 0) {
+            final var index = this.slots[slot] - 1;
+            if (this.hashes[slot] == hash && this.alarms.get(index).getReductionKey().equals(key)) {
+                this.alarms.add(merge(this.alarms.get(index), alarm));
+                this.alarms.set(index, null);
+                this.slots[slot] = this.alarms.size();
+
+                if (this.alarms.size() >= this.slots.length) {
+                    this.rebuild(this.slots.length);
+                }
+
+                return true;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        if (this.size == 0) {
+            this.oldest = System.currentTimeMillis();
+        }
+
+        this.alarms.add(alarm);
+        this.slots[slot] = this.alarms.size();
+        this.hashes[slot] = hash;
+        this.size++;
+
+        if (this.size * 4 > this.slots.length * 3) {
+            this.rebuild(this.slots.length * 2);
+        } else if (this.alarms.size() >= this.slots.length) {
+            this.rebuild(this.slots.length);
+        }
+
+        return true;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the time in milliseconds at which the oldest held alarm was added
+     */
+    public long getOldest() {
+        return this.oldest;
+    }
+
+    /**
+     * Passes all held alarms in the order they were last seen and resets the coalescer.
+     */
+    public void drain(final Consumer<Resync.Alarm> consumer) {
+        final var alarms = new ArrayList<>(this.alarms);
+
+        this.alarms.clear();
+        Arrays.fill(this.slots, 0);
+        this.size = 0;
+
+        for (final var alarm : alarms) {
+            if (alarm != null) {
+                consumer.accept(alarm);
+            }
+        }
+    }
+
+    /**
+     * Drops the entries left behind by moved alarms and indexes the remaining ones in a table of the given capacity.
+     */
+    private void rebuild(final int capacity) {
+        this.alarms.removeIf(Objects::isNull);
+
+        final var slots = new int[capacity];
+        final var hashes = new int[capacity];
+        final var mask = capacity - 1;
+
+        for (int i = 0; i < this.alarms.size(); i++) {
+            final var hash = hash(this.alarms.get(i).getReductionKey());
+
+            var slot = hash & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            slots[slot] = i + 1;
+            hashes[slot] = hash;
+        }
+
+        this.slots = slots;
+        this.hashes = hashes;
+    }
+
+    private static int hash(final String key) {
+        return key.hashCode() ^ (key.hashCode() >>> 16);
+    }
+
+    private static Resync.Alarm merge(final Resync.Alarm previous, final Resync.Alarm alarm) {
+        final var result = alarm.toBuilder();
+
+        result.setCount(Math.max(previous.getCount(), 1) + Math.max(alarm.getCount(), 1));
+
+        if (previous.getFirstEventTime() != 0 && (alarm.getFirstEventTime() == 0 || previous.getFirstEventTime() < alarm.getFirstEventTime())) {
+            result.setFirstEventTime(previous.getFirstEventTime());
+        }
+
+        if (previous.getLastEventTime() > alarm.getLastEventTime()) {
+            result.setLastEventTime(previous.getLastEventTime());
+        }
+
+        return result.build();
+    }
+}
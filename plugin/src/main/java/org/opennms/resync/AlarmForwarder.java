@@ -22,24 +22,51 @@
 
 package org.opennms.resync;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.protobuf.MessageOrBuilder;
 import com.google.protobuf.util.JsonFormat;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.opennms.resync.flow.TokenBucket;
 import org.opennms.resync.proto.Resync;
+import org.opennms.resync.storage.Spool;
 import org.osgi.service.cm.ConfigurationAdmin;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Slf4j
 public class AlarmForwarder {
@@ -48,20 +75,175 @@ public class AlarmForwarder {
     private final static String HEADER_RESYNC_MARK_FINISHED = "x-opennms-resync-finished";
     private final static String HEADER_RESYNC_MARK_TIMEOUT = "x-opennms-resync-timeout";
     private final static String HEADER_RESYNC_MARK_ALARM = "x-opennms-resync-alarm";
+    private final static String HEADER_RESYNC_MARK_ALARM_BATCH = "x-opennms-resync-alarm-batch";
 
-    private final String topic;
+    public enum AlarmFormat {
+        SINGLE,
+        BATCH
+    }
+
+    public enum PartitionKey {
+        // Start and end markers are sent without key, alarms keyed by reduction key
+        REDUCTION_KEY,
+        // All records of a node share a partition
+        NODE_ID,
+        // All records of a session share a partition
+        SESSION_ID
+    }
+
+    private static final String PRODUCER_OVERRIDE_PREFIX = "producer.";
+
+    // Longest the sender waits for the bandwidth limit before spooling the record for the replay to send it
+    private static final long THROTTLE_MAX_WAIT = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConfigurationAdmin configurationAdmin;
+
+    private final MetricRegistry metrics;
+
+    private String topic;
+
+    private String resyncTopic;
+
+    private KafkaProducer<byte[], byte[]> producer;
+
+    private TokenBucket bandwidth;
+
+    private Metric bufferTotal;
+
+    private Metric bufferAvailable;
+
+    private long bandwidthLimit = 0;
+
+    private long bandwidthBurst = 0;
+
+    private final Counter spoolDropped;
+
+    private final Timer producerAck;
+
+    private final Meter producerFailed;
+
+    private final Timer eventsLatency;
+
+    private boolean spoolEnabled = true;
+
+    private Path spoolDirectory = Paths.get(System.getProperty("karaf.data", "data"), "resync", "spool");
+
+    private int spoolSegmentSize = 16 * 1024 * 1024;
+
+    private long spoolMaxSize = 256L * 1024 * 1024;
+
+    private Duration spoolReplayInterval = Duration.ofSeconds(5);
+
+    private Spool spool;
+
+    private AlarmFormat alarmFormat = AlarmFormat.SINGLE;
+
+    private PartitionKey partitionKey = PartitionKey.REDUCTION_KEY;
+
+    private int batchMaxCount = 500;
+
+    private int batchMaxSize = 512 * 1024;
+
+    private Duration batchLinger = Duration.ofSeconds(1);
+
+    private final Map<String, Batch> batches = new HashMap<>();
 
-    private final KafkaProducer<byte[], byte[]> producer;
+    // Keeps the batches of a session in order while they are sent outside of the batches lock
+    private final Map<String, Object> flushLocks = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private int sendQueueCapacity = 10000;
+
+    // Records handed over by the event handler, sent by the sender thread so callers never wait for Kafka
+    private BlockingQueue<Outgoing> outgoing;
+
+    private Thread sender;
+
+    private volatile boolean running;
+
+    // Set by a failed send and cleared once the spool has been replayed, records are spooled right away in between
+    private volatile boolean failing = false;
+
+    public AlarmForwarder(final ConfigurationAdmin configurationAdmin,
+                          final MetricRegistry metrics) {
+        this.configurationAdmin = Objects.requireNonNull(configurationAdmin);
+        this.metrics = Objects.requireNonNull(metrics);
+        this.spoolDropped = metrics.counter("spool.dropped");
+        this.producerAck = metrics.timer("producer.ack");
+        this.producerFailed = metrics.meter("producer.failed");
+        this.eventsLatency = metrics.timer("events.latency");
+    }
+
+    public void setSpoolEnabled(final boolean spoolEnabled) {
+        this.spoolEnabled = spoolEnabled;
+    }
+
+    public void setSpoolDirectory(final String spoolDirectory) {
+        if (spoolDirectory != null && !spoolDirectory.isBlank()) {
+            this.spoolDirectory = Paths.get(spoolDirectory);
+        }
+    }
+
+    public void setSpoolSegmentSize(final int spoolSegmentSize) {
+        this.spoolSegmentSize = spoolSegmentSize;
+    }
+
+    public void setSpoolMaxSize(final long spoolMaxSize) {
+        this.spoolMaxSize = spoolMaxSize;
+    }
+
+    public void setSpoolReplayInterval(final long spoolReplayInterval) {
+        this.spoolReplayInterval = Duration.ofMillis(spoolReplayInterval);
+    }
+
+    public void setAlarmFormat(final String alarmFormat) {
+        this.alarmFormat = AlarmFormat.valueOf(alarmFormat.toUpperCase());
+    }
+
+    public void setResyncTopic(final String resyncTopic) {
+        this.resyncTopic = resyncTopic;
+    }
+
+    public void setBandwidthLimit(final long bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+    }
+
+    public void setBandwidthBurst(final long bandwidthBurst) {
+        this.bandwidthBurst = bandwidthBurst;
+    }
+
+    public void setPartitionKey(final String partitionKey) {
+        this.partitionKey = PartitionKey.valueOf(partitionKey.toUpperCase());
+    }
+
+    public void setBatchMaxCount(final int batchMaxCount) {
+        this.batchMaxCount = batchMaxCount;
+    }
 
-    public AlarmForwarder(final ConfigurationAdmin configurationAdmin) throws IOException {
-        final Dictionary<String, Object> producerConfig = configurationAdmin.getConfiguration("org.opennms.features.kafka.producer").getProperties();
-        if (producerConfig != null) {
+    public void setBatchMaxSize(final int batchMaxSize) {
+        this.batchMaxSize = batchMaxSize;
+    }
+
+    public void setBatchLinger(final long batchLinger) {
+        this.batchLinger = Duration.ofMillis(batchLinger);
+    }
+
+    public void setSendQueueCapacity(final int sendQueueCapacity) {
+        this.sendQueueCapacity = sendQueueCapacity;
+    }
+
+    public void start() throws IOException {
+        final Dictionary<String, Object> producerConfig = this.configurationAdmin.getConfiguration("org.opennms.features.kafka.producer").getProperties();
+        if (this.resyncTopic != null && !this.resyncTopic.isBlank()) {
+            this.topic = this.resyncTopic;
+        } else if (producerConfig != null) {
             this.topic = Objects.toString(Objects.requireNonNullElse(producerConfig.get("alarmTopic"), "alarms"));
         } else {
             this.topic = "alarms";
         }
 
-        final Dictionary<String, Object> clientConfig = configurationAdmin.getConfiguration("org.opennms.features.kafka.producer.client").getProperties();
+        final Dictionary<String, Object> clientConfig = this.configurationAdmin.getConfiguration("org.opennms.features.kafka.producer.client").getProperties();
         if (clientConfig == null) {
             log.warn("No kafka producer client configuration found.");
             throw new IllegalStateException("No kafka producer client configuration found.");
@@ -77,25 +259,316 @@ public class AlarmForwarder {
             }
         }
 
+        // Resync specific overrides to isolate resync traffic from the live alarm feed
+        final Dictionary<String, Object> resyncConfig = this.configurationAdmin.getConfiguration("org.opennms.plugins.resync").getProperties();
+        if (resyncConfig != null) {
+            final var keys = resyncConfig.keys();
+            while (keys.hasMoreElements()) {
+                final var key = keys.nextElement();
+                if (key.startsWith(PRODUCER_OVERRIDE_PREFIX)) {
+                    producer.put(key.substring(PRODUCER_OVERRIDE_PREFIX.length()), resyncConfig.get(key));
+                }
+            }
+        }
+
+        producer.putIfAbsent("client.id", "opennms-resync");
+        // Fail fast on an unreachable broker, the records are spooled instead
+        producer.putIfAbsent("max.block.ms", 5000);
         producer.put("key.serializer", ByteArraySerializer.class.getCanonicalName());
         producer.put("value.serializer", ByteArraySerializer.class.getCanonicalName());
 
         this.producer = runWithGivenClassLoader(() -> new KafkaProducer<>(producer), AlarmForwarder.class.getClassLoader());
+
+        for (final var metric : this.producer.metrics().values()) {
+            if (!"producer-metrics".equals(metric.metricName().group())) {
+                continue;
+            }
+
+            if ("buffer-total-bytes".equals(metric.metricName().name())) {
+                this.bufferTotal = metric;
+            } else if ("buffer-available-bytes".equals(metric.metricName().name())) {
+                this.bufferAvailable = metric;
+            }
+        }
+
+        if (this.bandwidthLimit > 0) {
+            this.bandwidth = new TokenBucket(this.bandwidthLimit, this.bandwidthBurst > 0 ? this.bandwidthBurst : this.bandwidthLimit);
+        }
+
+        this.metrics.register("batch.pending", (Gauge<Integer>) this::batchPending);
+        this.outgoing = new ArrayBlockingQueue<>(this.sendQueueCapacity);
+        this.metrics.register("producer.queue", (Gauge<Integer>) this.outgoing::size);
+        this.running = true;
+        this.sender = new Thread(this::sendLoop, "resync-alarm-sender");
+        this.sender.start();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "resync-alarm-forwarder"));
+
+        if (this.alarmFormat == AlarmFormat.BATCH) {
+            this.scheduler.scheduleWithFixedDelay(this::linger,
+                    this.batchLinger.toMillis(),
+                    this.batchLinger.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        if (!this.spoolEnabled) {
+            return;
+        }
+
+        this.spool = new Spool(this.spoolDirectory, this.spoolSegmentSize, this.spoolMaxSize);
+
+        this.metrics.register("spool.depth", (Gauge<Long>) this.spool::getDepth);
+        this.metrics.register("spool.size", (Gauge<Long>) this.spool::getSize);
+        this.metrics.register("spool.age", (Gauge<Long>) this::spoolAge);
+        this.metrics.register("spool.corrupted", (Gauge<Long>) this.spool::getCorrupted);
+
+        this.scheduler.scheduleWithFixedDelay(this::replay,
+                this.spoolReplayInterval.toMillis(),
+                this.spoolReplayInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
     }
 
-    private void send(final ProducerRecord<byte[], byte[]> record) {
+    public void stop() throws IOException {
+        this.scheduler.shutdownNow();
+
+        final Set<String> sessionIds;
+        synchronized (this.batches) {
+            sessionIds = Set.copyOf(this.batches.keySet());
+        }
+
+        for (final var sessionId : sessionIds) {
+            this.flush(sessionId);
+        }
+
+        // Let the sender hand over the queued records before the producer is closed
+        this.running = false;
+        if (this.sender != null) {
+            try {
+                this.sender.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.sender.interrupt();
+        }
+
+        Outgoing record;
+        while (this.outgoing != null && (record = this.outgoing.poll()) != null) {
+            this.spool(record);
+        }
+
+        if (this.producer != null) {
+            this.producer.close();
+        }
+
+        this.metrics.remove("batch.pending");
+        this.metrics.remove("producer.queue");
+
+        if (this.spool != null) {
+            this.metrics.removeMatching((name, metric) -> name.startsWith("spool."));
+            this.spool.close();
+        }
+    }
+
+    /**
+     * @return the utilization of the producer buffer or the send queue, whichever is higher
+     */
+    public double getBufferUtilization() {
+        final var queue = this.outgoing != null
+                ? (double) this.outgoing.size() / this.sendQueueCapacity
+                : 0.0;
+
+        if (this.bufferTotal == null || this.bufferAvailable == null) {
+            return queue;
+        }
+
+        final var total = ((Number) this.bufferTotal.metricValue()).doubleValue();
+        final var available = ((Number) this.bufferAvailable.metricValue()).doubleValue();
+        if (total <= 0.0) {
+            return queue;
+        }
+
+        return Math.max(queue, 1.0 - available / total);
+    }
+
+    /**
+     * Hands a record over to the sender without blocking. Records are spooled right away if the send queue is full.
+     */
+    private void send(final ProducerRecord<byte[], byte[]> record, final long... eventTimes) {
+        final var outgoing = new Outgoing(record, eventTimes);
+        if (!this.outgoing.offer(outgoing)) {
+            log.warn("Send queue is full - spooling record");
+            this.metrics.meter("producer.overflow").mark();
+            this.spool(outgoing);
+        }
+    }
+
+    private void sendLoop() {
+        while (this.running || !this.outgoing.isEmpty()) {
+            try {
+                final var record = this.outgoing.poll(100, TimeUnit.MILLISECONDS);
+                if (record != null) {
+                    this.dispatch(record);
+                }
+            } catch (final InterruptedException e) {
+                return;
+            } catch (final Exception e) {
+                log.error("Failed to send record", e);
+            }
+        }
+    }
+
+    private void dispatch(final Outgoing record) throws InterruptedException {
+        // Keep records in order while older ones are still waiting for replay, and spool instead of waiting for a
+        // failing broker or an exhausted producer buffer
+        if (this.spool != null && (this.failing || !this.spool.isEmpty() || this.exhausted(record))) {
+            this.spool(record);
+            return;
+        }
+
+        if (!this.throttle(record)) {
+            this.metrics.meter("producer.throttled").mark();
+            this.spool(record);
+            return;
+        }
+
         try {
-            this.producer.send(record, (metadata, ex) -> {
+            final var ack = this.producerAck.time();
+            this.producer.send(record.record, (metadata, ex) -> {
+                ack.stop();
                 if (ex != null) {
                     log.error("Failed to send record", ex);
+                    this.producerFailed.mark();
+                    this.failing = true;
+                    this.spool(record);
                 } else {
+                    this.acknowledged(record);
                     log.debug("Sent record");
                 }
-            }).get();
-        } catch (final ExecutionException e) {
+            });
+        } catch (final KafkaException e) {
             log.error("Failed to send record", e);
+            this.producerFailed.mark();
+            this.failing = true;
+            this.spool(record);
+        }
+    }
+
+    private boolean exhausted(final Outgoing record) {
+        return this.bufferAvailable != null
+                && ((Number) this.bufferAvailable.metricValue()).longValue() < size(record.record);
+    }
+
+    private void acknowledged(final Outgoing record) {
+        final var now = System.currentTimeMillis();
+        for (final var eventTime : record.eventTimes) {
+            if (eventTime > 0) {
+                this.eventsLatency.update(now - eventTime, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Waits for the bandwidth limit on the sender thread.
+     *
+     * @return {@code false} if the record would exceed the limit for too long, in which case nothing is reserved
+     */
+    private boolean throttle(final Outgoing record) throws InterruptedException {
+        if (this.bandwidth == null) {
+            return true;
+        }
+
+        // Without a spool to take over, wait as long as it takes
+        final var wait = this.bandwidth.tryReserve(size(record.record), this.spool != null ? THROTTLE_MAX_WAIT : Long.MAX_VALUE);
+        if (wait < 0) {
+            return false;
+        }
+
+        TimeUnit.NANOSECONDS.sleep(wait);
+        return true;
+    }
+
+    private void bandwidth(final Outgoing record) throws InterruptedException {
+        if (this.bandwidth != null) {
+            this.bandwidth.acquire(size(record.record));
+        }
+    }
+
+    private static long size(final ProducerRecord<byte[], byte[]> record) {
+        long size = record.value().length;
+        if (record.key() != null) {
+            size += record.key().length;
+        }
+        for (final var header : record.headers()) {
+            size += header.key().length() + (header.value() != null ? header.value().length : 0);
+        }
+        return size;
+    }
+
+    private void spool(final Outgoing record) {
+        if (this.spool == null) {
+            return;
+        }
+
+        try {
+            if (this.spool.append(encode(record))) {
+                log.debug("Spooled record");
+                return;
+            }
+
+            log.warn("Spool is full - dropping record");
+        } catch (final IOException e) {
+            log.error("Failed to spool record - dropping record", e);
+        }
+
+        this.spoolDropped.inc();
+    }
+
+    private void replay() {
+        try {
+            Spool.Entry entry;
+            while ((entry = this.spool.peek()) != null) {
+                try {
+                    final var record = decode(entry.getData());
+                    this.bandwidth(record);
+
+                    final var ack = this.producerAck.time();
+                    try {
+                        this.producer.send(record.record).get();
+                    } finally {
+                        ack.stop();
+                    }
+
+                    this.acknowledged(record);
+                } catch (final ExecutionException | KafkaException e) {
+                    log.debug("Replay of spooled records failed - retrying later", e);
+                    this.producerFailed.mark();
+                    break;
+                }
+
+                this.spool.commit(entry);
+            }
+
+            // Kafka is reachable again once the spool has been drained
+            if (this.spool.isEmpty()) {
+                this.failing = false;
+            }
+
+            this.spool.force();
         } catch (final InterruptedException e) {
             Thread.currentThread().interrupt();
+        } catch (final Exception e) {
+            log.error("Failed to replay spooled records", e);
+        }
+    }
+
+    private long spoolAge() {
+        try {
+            final var entry = this.spool.peek();
+            return entry != null
+                    ? Duration.between(entry.getTimestamp(), Instant.now()).toMillis()
+                    : 0L;
+        } catch (final IOException e) {
+            return -1L;
         }
     }
 
@@ -108,50 +581,200 @@ public class AlarmForwarder {
 
         log.debug("post: start: {}", msgToJson(message));
 
-        final var record = new ProducerRecord<>(this.topic, (byte[]) null, message.toByteArray());
+        final var record = new ProducerRecord<>(this.topic, this.key(sessionId, nodeId, null), message.toByteArray());
         record.headers().add(HEADER_RESYNC_MARK_START, new byte[0]);
 
         this.send(record);
     }
 
-    public void postEnd(final String sessionId, final long nodeId, final Map<String, String> parameters, final boolean success) {
+    public void postEnd(final String sessionId,
+                        final long nodeId,
+                        final Map<String, String> parameters,
+                        final boolean success,
+                        final Map<String, Long> timings) {
+        // Pending alarms must be published before the end marker
+        this.flush(sessionId);
+        this.flushLocks.remove(sessionId);
+
         final var message = Resync.ResyncEnd.newBuilder()
                 .setNodeId(nodeId)
                 .setSuccess(success)
                 .setResyncId(sessionId)
                 .putAllParameters(parameters)
+                .putAllTimings(timings)
                 .build();
 
         log.debug("post: end: {}", msgToJson(message));
 
-        final var record = new ProducerRecord<>(this.topic, (byte[]) null, message.toByteArray());
+        final var record = new ProducerRecord<>(this.topic, this.key(sessionId, nodeId, null), message.toByteArray());
         record.headers().add(success ? HEADER_RESYNC_MARK_FINISHED : HEADER_RESYNC_MARK_TIMEOUT, new byte[0]);
 
         this.send(record);
     }
 
-    public void postAlarm(final String sessionId, final Resync.Alarm alarm) {
+    public void postAlarm(final String sessionId, final Map<String, String> parameters, final Resync.Alarm alarm) {
+        if (this.alarmFormat == AlarmFormat.BATCH) {
+            this.batchAlarm(sessionId, parameters, alarm);
+            return;
+        }
+
         final var updatedAlarm = alarm.toBuilder()
-                .setResyncId(sessionId)
-                .build();
+                .setResyncId(sessionId);
+
+        parameters.forEach((key, value) -> {
+            final var builder = Resync.EventParameter.newBuilder()
+                    .setName(key)
+                    .setType("string");
+            if (value != null) {
+                builder.setValue(value);
+            }
+
+            updatedAlarm.getLastEventBuilder().addParameter(builder);
+        });
 
         log.debug("post: alarm: {}", msgToJson(updatedAlarm));
 
-        final var key = alarm.getReductionKey().getBytes(StandardCharsets.UTF_8);
+        final var key = this.key(sessionId, alarm.getNodeCriteria().getId(), alarm.getReductionKey());
 
-        final var record = new ProducerRecord<>(this.topic, key, updatedAlarm.toByteArray());
+        final var record = new ProducerRecord<>(this.topic, key, updatedAlarm.build().toByteArray());
         record.headers().add(HEADER_RESYNC_MARK_ALARM, new byte[0]);
 
-        this.send(record);
+        this.send(record, alarm.getLastEventTime());
+    }
+
+    private void batchAlarm(final String sessionId, final Map<String, String> parameters, final Resync.Alarm alarm) {
+        final boolean full;
+        synchronized (this.batches) {
+            final var batch = this.batches.computeIfAbsent(sessionId, id -> {
+                this.flushLocks.computeIfAbsent(id, key -> new Object());
+                return new Batch(Resync.AlarmBatch.newBuilder()
+                        .setResyncId(id)
+                        .setNodeCriteria(alarm.getNodeCriteria())
+                        .putAllParameters(parameters));
+            });
+
+            // Node and session are carried by the batch
+            final var stripped = alarm.toBuilder()
+                    .clearNodeCriteria()
+                    .build();
+
+            batch.message.addAlarm(stripped);
+            batch.size += stripped.getSerializedSize();
+
+            full = batch.message.getAlarmCount() >= this.batchMaxCount || batch.size >= this.batchMaxSize;
+        }
+
+        if (full) {
+            this.flush(sessionId);
+        }
+    }
+
+    /**
+     * Sends the pending batch of the session without holding the batches lock during the Kafka round trip.
+     */
+    private void flush(final String sessionId) {
+        final var lock = this.flushLocks.get(sessionId);
+        if (lock == null) {
+            return;
+        }
+
+        synchronized (lock) {
+            final Batch batch;
+            synchronized (this.batches) {
+                batch = this.batches.remove(sessionId);
+            }
+
+            if (batch != null) {
+                this.send(sessionId, batch);
+            }
+        }
+    }
+
+    private void send(final String sessionId, final Batch batch) {
+        final var message = batch.message.build();
+
+        log.debug("post: alarm batch: {} (alarms = {}, size = {})", sessionId, message.getAlarmCount(), batch.size);
+
+        final var key = this.key(sessionId, message.getNodeCriteria().getId(), null);
+
+        final var record = new ProducerRecord<>(this.topic, key, message.toByteArray());
+        record.headers().add(HEADER_RESYNC_MARK_ALARM_BATCH, new byte[0]);
+
+        this.send(record, message.getAlarmList().stream()
+                .mapToLong(Resync.Alarm::getLastEventTime)
+                .toArray());
+    }
+
+    private int batchPending() {
+        synchronized (this.batches) {
+            return this.batches.values().stream()
+                    .mapToInt(batch -> batch.message.getAlarmCount())
+                    .sum();
+        }
+    }
+
+    private void linger() {
+        try {
+            final var deadline = Instant.now().minus(this.batchLinger);
+
+            final List<String> expired;
+            synchronized (this.batches) {
+                expired = this.batches.entrySet().stream()
+                        .filter(batch -> batch.getValue().created.isBefore(deadline))
+                        .map(Map.Entry::getKey)
+                        .collect(Collectors.toList());
+            }
+
+            for (final var sessionId : expired) {
+                this.flush(sessionId);
+            }
+        } catch (final Exception e) {
+            log.error("Failed to flush alarm batches", e);
+        }
     }
 
     public void postActionAlarm(final Resync.Alarm alarm) {
         log.debug("post: action alarm: {}", msgToJson(alarm));
 
-        final var key = alarm.getReductionKey().getBytes(StandardCharsets.UTF_8);
+        final var key = this.key(alarm.getActionId(), alarm.getNodeCriteria().getId(), alarm.getReductionKey());
         final var record = new ProducerRecord<>(this.topic, key, alarm.toByteArray());
 
-        this.send(record);
+        this.send(record, alarm.getLastEventTime());
+    }
+
+    private byte[] key(final String sessionId, final long nodeId, final String reductionKey) {
+        switch (this.partitionKey) {
+            case NODE_ID:
+                return Long.toString(nodeId).getBytes(StandardCharsets.UTF_8);
+            case SESSION_ID:
+                return sessionId.getBytes(StandardCharsets.UTF_8);
+            case REDUCTION_KEY:
+            default:
+                return reductionKey != null
+                        ? reductionKey.getBytes(StandardCharsets.UTF_8)
+                        : null;
+        }
+    }
+
+    private static class Outgoing {
+        private final ProducerRecord<byte[], byte[]> record;
+        // Creation times of the carried events, used to measure the latency until Kafka acknowledged them
+        private final long[] eventTimes;
+
+        private Outgoing(final ProducerRecord<byte[], byte[]> record, final long[] eventTimes) {
+            this.record = record;
+            this.eventTimes = eventTimes;
+        }
+    }
+
+    private static class Batch {
+        private final Resync.AlarmBatch.Builder message;
+        private final Instant created = Instant.now();
+        private int size = 0;
+
+        private Batch(final Resync.AlarmBatch.Builder message) {
+            this.message = message;
+        }
     }
 
     private static <T> T runWithGivenClassLoader(final Supplier<T> supplier, ClassLoader classLoader) {
@@ -165,6 +788,69 @@ public class AlarmForwarder {
         }
     }
 
+    private static byte[] encode(final Outgoing outgoing) throws IOException {
+        final var record = outgoing.record;
+        final var bytes = new ByteArrayOutputStream();
+        try (final var out = new DataOutputStream(bytes)) {
+            out.writeUTF(record.topic());
+            writeBytes(out, record.key());
+            writeBytes(out, record.value());
+
+            final var headers = record.headers().toArray();
+            out.writeInt(headers.length);
+            for (final var header : headers) {
+                out.writeUTF(header.key());
+                writeBytes(out, header.value());
+            }
+
+            out.writeInt(outgoing.eventTimes.length);
+            for (final var eventTime : outgoing.eventTimes) {
+                out.writeLong(eventTime);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Outgoing decode(final byte[] data) throws IOException {
+        try (final var in = new DataInputStream(new ByteArrayInputStream(data))) {
+            final var record = new ProducerRecord<>(in.readUTF(), readBytes(in), readBytes(in));
+
+            final var headers = in.readInt();
+            for (int i = 0; i < headers; i++) {
+                record.headers().add(in.readUTF(), readBytes(in));
+            }
+
+            // Records spooled by earlier versions carry no event times
+            final var eventTimes = new long[in.available() > 0 ? in.readInt() : 0];
+            for (int i = 0; i < eventTimes.length; i++) {
+                eventTimes[i] = in.readLong();
+            }
+
+            return new Outgoing(record, eventTimes);
+        }
+    }
+
+    private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final var length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        final var bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
     @SneakyThrows
     private static String msgToJson(final MessageOrBuilder message) {
         return JsonFormat.printer().print(message);
@@ -22,6 +22,8 @@
 
 package org.opennms.resync;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Maps;
 import lombok.Builder;
 import lombok.Data;
@@ -37,18 +39,29 @@ import org.opennms.netmgt.events.api.model.IEvent;
 import org.opennms.netmgt.events.api.model.IParm;
 import org.opennms.netmgt.events.api.model.IValue;
 import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.resync.config.CompletionConfig;
+import org.opennms.resync.flow.FlowControl;
 import org.opennms.resync.proto.Resync;
+import org.opennms.resync.storage.Journal;
 
+import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -83,11 +96,85 @@ public class EventHandler implements EventListener {
     @NonNull
     private final AlarmForwarder alarmForwarder;
 
+    @NonNull
+    private final FlowControl flowControl;
+
+    @NonNull
+    private final MetricRegistry metrics;
+
     private TimerTask timer;
 
+    private boolean coalesce = false;
+
+    private Duration coalesceWindow = Duration.ZERO;
+
+    private int coalesceMaxAlarms = 10000;
+
+    private boolean journalEnabled = true;
+
+    private Path journalDirectory = Paths.get(System.getProperty("karaf.data", "data"), "resync", "journal");
+
+    private int journalSegmentSize = 4 * 1024 * 1024;
+
+    private SessionJournal journal;
+
     private final Map<Source, Session> sessions = new ConcurrentHashMap<>();
 
+    // UEIs of completion traps subscribed in addition to the resync UEIs
+    private final Set<String> completionUeis = new HashSet<>();
+
+    private static final int RECENT_SESSIONS = 1000;
+
+    // Status of recently closed sessions by session ID
+    private final Map<String, Status> recent = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Status> eldest) {
+            return this.size() > RECENT_SESSIONS;
+        }
+    };
+
+    public void setCoalesce(final boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    public void setCoalesceWindow(final long coalesceWindow) {
+        this.coalesceWindow = Duration.ofMillis(coalesceWindow);
+    }
+
+    public void setCoalesceMaxAlarms(final int coalesceMaxAlarms) {
+        this.coalesceMaxAlarms = coalesceMaxAlarms;
+    }
+
+    public void setJournalEnabled(final boolean journalEnabled) {
+        this.journalEnabled = journalEnabled;
+    }
+
+    public void setJournalDirectory(final String journalDirectory) {
+        if (journalDirectory != null && !journalDirectory.isBlank()) {
+            this.journalDirectory = Paths.get(journalDirectory);
+        }
+    }
+
+    public void setJournalSegmentSize(final int journalSegmentSize) {
+        this.journalSegmentSize = journalSegmentSize;
+    }
+
     public void start() {
+        this.metrics.register("sessions.active", (Gauge<Integer>) this.sessions::size);
+
+        if (this.journalEnabled) {
+            // Sessions are still handled without a journal, they are just not recovered after a restart
+            try {
+                this.journal = new SessionJournal(this.journalDirectory, this.journalSegmentSize);
+            } catch (final IOException e) {
+                log.error("Failed to open session journal in {} - sessions are not journaled", this.journalDirectory, e);
+            }
+
+            if (this.journal != null) {
+                this.recover();
+            }
+        }
+
         assert this.timer == null;
         TIMER.scheduleAtFixedRate(this.timer = this.timer(), 0, 1000);
 
@@ -96,9 +183,67 @@ public class EventHandler implements EventListener {
 
     public void stop() {
         this.eventSubscriptionService.removeEventListener(this);
+        this.completionUeis.clear();
+
+        this.metrics.remove("sessions.active");
 
         assert this.timer != null;
         this.timer.cancel();
+
+        // Open sessions stay in the journal to be recovered on the next start
+        synchronized (this) {
+            if (this.journal != null) {
+                try {
+                    this.journal.close();
+                } catch (final IOException e) {
+                    log.warn("Failed to close session journal", e);
+                }
+                this.journal = null;
+            }
+        }
+    }
+
+    /**
+     * Restores the sessions left open by the previous run.
+     *
+     * Restored sessions time out unless further events arrive, which publishes the end marker of sessions whose walk
+     * has been interrupted by the restart. SET sessions keep their completion rules and the time they were triggered.
+     */
+    private synchronized void recover() {
+        final var recovered = this.journal.recover();
+        for (final var entry : recovered) {
+            final var record = entry.getRecord();
+
+            final var source = new Source(record.getNodeId(), record.getIface());
+            if (this.sessions.containsKey(source)) {
+                this.journal.closed(entry.getEntry());
+                continue;
+            }
+
+            final var session = Session.builder()
+                    .sessionId(record.getSessionId())
+                    .timeout(record.getTimeout())
+                    .nodeLabel(record.getNodeLabel())
+                    .parameters(record.getParameters())
+                    .timeline(new SessionTimeline(Instant.ofEpochMilli(record.getCreated())))
+                    .completion(record.getCompletion())
+                    .coalescer(this.coalesce ? new AlarmCoalescer() : null)
+                    .build();
+            session.journalEntry = entry.getEntry();
+
+            this.sessions.put(source, session);
+
+            if (record.getCompletion() != null) {
+                this.subscribe(record.getCompletion().getStartUei());
+                this.subscribe(record.getCompletion().getEndUei());
+            }
+
+            log.info("resync session: {} - recovered (id = {}, created = {})", source, record.getSessionId(), Instant.ofEpochMilli(record.getCreated()));
+        }
+
+        if (!recovered.isEmpty()) {
+            this.metrics.meter("sessions.recovered").mark(recovered.size());
+        }
     }
 
     @Override
@@ -110,7 +255,9 @@ public class EventHandler implements EventListener {
                                            final String sessionId,
                                            final Duration timeout,
                                            final String nodeLabel,
-                                           final HashMap<String, Object> parameters) {
+                                           final HashMap<String, Object> parameters,
+                                           final SessionTimeline timeline,
+                                           final CompletionConfig completion) {
         if (this.sessions.containsKey(source)) {
             throw new IllegalStateException("session already exists for source: " + source);
         }
@@ -120,11 +267,84 @@ public class EventHandler implements EventListener {
                 .timeout(timeout)
                 .nodeLabel(nodeLabel)
                 .parameters(Maps.transformValues(parameters, Object::toString))
+                .timeline(timeline)
+                .completion(completion)
+                .coalescer(this.coalesce ? new AlarmCoalescer() : null)
                 .build());
 
+        if (this.journal != null) {
+            final var session = this.sessions.get(source);
+            session.journalEntry = this.journal.opened(SessionJournal.Record.builder()
+                    .sessionId(sessionId)
+                    .nodeId(source.nodeId)
+                    .iface(source.iface)
+                    .nodeLabel(nodeLabel)
+                    .timeout(timeout)
+                    .created(timeline.getCreated().toEpochMilli())
+                    .parameters(session.parameters)
+                    .completion(completion)
+                    .build());
+        }
+
+        if (completion != null) {
+            this.subscribe(completion.getStartUei());
+            this.subscribe(completion.getEndUei());
+        }
+
         log.info("resync session: {} - created (id = {}, handler = {})", source, sessionId, System.identityHashCode(this));
     }
 
+    public synchronized List<Status> getSessions() {
+        final var result = new ArrayList<Status>(this.sessions.size() + this.recent.size());
+        this.sessions.forEach((source, session) -> result.add(status(source, session, State.ACTIVE)));
+        result.addAll(this.recent.values());
+        return result;
+    }
+
+    public synchronized Optional<Status> getSession(final String sessionId) {
+        for (final var session : this.sessions.entrySet()) {
+            if (session.getValue().sessionId.equals(sessionId)) {
+                return Optional.of(status(session.getKey(), session.getValue(), State.ACTIVE));
+            }
+        }
+
+        return Optional.ofNullable(this.recent.get(sessionId));
+    }
+
+    /**
+     * @return a future completed once the session with the given ID has ended, or right away if it is not active
+     */
+    public synchronized CompletableFuture<Void> awaitSession(final String sessionId) {
+        for (final var session : this.sessions.values()) {
+            if (session.sessionId.equals(sessionId)) {
+                return session.ended;
+            }
+        }
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Completes the session once an alarm carrying the given sequence ID has been replayed.
+     */
+    public synchronized void expectSequence(final Source source, final long sequence) {
+        final var session = this.sessions.get(source);
+        if (session == null) {
+            return;
+        }
+
+        session.expectedSequence = sequence;
+
+        this.checkCompletion(source, session);
+    }
+
+    public synchronized void touch(final Source source) {
+        final var session = this.sessions.get(source);
+        if (session != null) {
+            session.lastEvent = Instant.now();
+        }
+    }
+
     @Override
     public synchronized void onEvent(final IEvent event) {
         final var source = new Source(event.getNodeid(), event.getInterfaceAddress());
@@ -141,13 +361,24 @@ public class EventHandler implements EventListener {
                 this.onTimeout(source, event);
                 break;
             case UEI_RESYNC_ALARM:
-                this.onAlarm(source, event);
+                try {
+                    this.onAlarm(source, event);
+                } finally {
+                    // Events emitted by the trigger service are accounted for flow control
+                    if (EVENT_SOURCE.equals(event.getSource())) {
+                        this.flowControl.forwarded();
+                    }
+                }
                 break;
             case UEI_ACTION_RESPONSE:
                 this.onActionResponse(event);
                 break;
             default:
-                log.warn("Unknown UEI: {}", event.getUei());
+                if (this.completionUeis.contains(event.getUei())) {
+                    this.onCompletionEvent(source, event);
+                } else {
+                    log.warn("Unknown UEI: {}", event.getUei());
+                }
         }
     }
 
@@ -161,20 +392,22 @@ public class EventHandler implements EventListener {
 
         log.info("resyc session {}: started (id = {}, handler = {})", source, session.sessionId, System.identityHashCode(this));
 
+        session.timeline.mark(SessionTimeline.Stage.STARTED);
+
         this.alarmForwarder.postStart(session.sessionId, source.nodeId, session.parameters);
     }
 
     private synchronized void onFinished(final Source source, final IEvent event) {
         if (!this.sessions.containsKey(source)) {
             log.warn("onFinished: unknown session: {} (handler = {})", source, System.identityHashCode(this));
+            return;
         }
 
-        // TODO: Keep sessions there to get out status?
         final var session = this.sessions.remove(source);
 
         log.info("resync session {}: completed (id = {}, handler = {})", source, session.sessionId, System.identityHashCode(this));
 
-        this.alarmForwarder.postEnd(session.sessionId, source.nodeId, session.parameters, true);
+        this.close(source, session, true);
     }
 
     private synchronized void onTimeout(final Source source, final IEvent event) {
@@ -183,12 +416,116 @@ public class EventHandler implements EventListener {
             return;
         }
 
-        // TODO: Keep sessions there to get out status?
         final var session = this.sessions.remove(source);
 
         log.warn("resync session {}: timeout (id = {}, handler = {})", source, session.sessionId, System.identityHashCode(this));
 
-        this.alarmForwarder.postEnd(session.sessionId, source.nodeId, session.parameters, false);
+        this.close(source, session, false);
+    }
+
+    private synchronized void onCompletionEvent(final Source source, final IEvent event) {
+        final var session = this.sessions.get(source);
+        if (session == null || session.completion == null) {
+            return;
+        }
+
+        session.lastEvent = Instant.now();
+
+        if (event.getUei().equals(session.completion.getEndUei())) {
+            this.complete(source, session, "end trap");
+            return;
+        }
+
+        if (event.getUei().equals(session.completion.getStartUei()) && session.completion.getCountParameter() != null) {
+            final var count = Optional.ofNullable(event.getParm(session.completion.getCountParameter()))
+                    .map(IParm::getValue)
+                    .map(IValue::getContent)
+                    .map(String::trim);
+            try {
+                count.map(Long::parseLong).ifPresent(expected -> session.expectedCount = expected);
+            } catch (final NumberFormatException e) {
+                log.warn("resync session {}: invalid alarm count: {}", source, count.get());
+            }
+
+            this.checkCompletion(source, session);
+        }
+    }
+
+    private void checkCompletion(final Source source, final Session session) {
+        if (session.expectedCount >= 0 && session.received >= session.expectedCount) {
+            this.complete(source, session, "alarm count");
+        } else if (session.expectedSequence >= 0 && session.lastSequence >= session.expectedSequence) {
+            this.complete(source, session, "sequence");
+        }
+    }
+
+    private void complete(final Source source, final Session session, final String rule) {
+        if (!this.sessions.remove(source, session)) {
+            return;
+        }
+
+        log.info("resync session {}: completed by {} (id = {}, handler = {})", source, rule, session.sessionId, System.identityHashCode(this));
+
+        this.metrics.meter("sessions.completed").mark();
+
+        this.close(source, session, true);
+    }
+
+    private void subscribe(final String uei) {
+        if (uei != null && !UEIS.contains(uei) && this.completionUeis.add(uei)) {
+            this.eventSubscriptionService.addEventListener(this, uei);
+        }
+    }
+
+    private void coalesce(final Session session, final Resync.Alarm alarm) {
+        final var size = session.coalescer.size();
+        if (!session.coalescer.add(alarm)) {
+            this.post(session, alarm);
+            return;
+        }
+
+        if (session.coalescer.size() == size) {
+            this.metrics.meter("alarms.coalesced").mark();
+        }
+
+        if (session.coalescer.size() >= this.coalesceMaxAlarms) {
+            this.drain(session);
+        }
+    }
+
+    private void drain(final Session session) {
+        if (session.coalescer != null) {
+            session.coalescer.drain(alarm -> this.post(session, alarm));
+        }
+    }
+
+    private void post(final Session session, final Resync.Alarm alarm) {
+        this.alarmForwarder.postAlarm(session.sessionId, session.parameters, alarm);
+
+        // Coalesced alarms count once they are handed to the forwarder
+        session.timeline.mark(SessionTimeline.Stage.FIRST_ALARM);
+    }
+
+    private void close(final Source source, final Session session, final boolean success) {
+        this.drain(session);
+
+        session.timeline.mark(SessionTimeline.Stage.FINISHED);
+
+        this.alarmForwarder.postEnd(session.sessionId, source.nodeId, session.parameters, success, session.timeline.published());
+
+        session.timeline.mark(SessionTimeline.Stage.END_ACKED);
+
+        if (this.journal != null) {
+            this.journal.closed(session.journalEntry);
+        }
+        session.timeline.report(this.metrics);
+
+        this.metrics.timer("sessions.duration").update(Duration.between(session.timeline.getCreated(), Instant.now()));
+        this.metrics.meter(success ? "sessions.success" : "sessions.timeout").mark();
+
+        this.recent.put(session.sessionId, status(source, session, success ? State.FINISHED : State.TIMEOUT));
+
+        session.ended.complete(null);
     }
 
     private synchronized void onAlarm(final Source source, final IEvent event) {
@@ -200,6 +537,12 @@ public class EventHandler implements EventListener {
         final var session = this.sessions.get(source);
         session.lastEvent = Instant.now();
 
+        // Rows of SET sessions are replayed by the agent
+        if (!EVENT_SOURCE.equals(event.getSource())) {
+            session.timeline.mark(SessionTimeline.Stage.FIRST_ROW);
+            session.timeline.update(SessionTimeline.Stage.LAST_ROW);
+        }
+
         log.info("resync session {}: alarm - {} (id = {}, handler = {})", source, event, session.sessionId, System.identityHashCode(this));
 
         final var alarm = Resync.Alarm.newBuilder();
@@ -248,18 +591,20 @@ public class EventHandler implements EventListener {
                 })
                 .forEach(alarmEvent::addParameter);
 
-        session.parameters.forEach((key, value) -> {
-            final var builder = Resync.EventParameter.newBuilder()
-                    .setName(key)
-                    .setType("string");
-            applyNotNull(value, builder::setValue);
+        alarm.setLastEvent(alarmEvent);
 
-            alarmEvent.addParameter(builder);
-        });
+        if (session.coalescer == null) {
+            this.post(session, alarm.build());
+        } else {
+            this.coalesce(session, alarm.build());
+        }
 
-        alarm.setLastEvent(alarmEvent);
+        if (session.completion != null) {
+            session.received++;
+            session.lastSequence = Math.max(session.lastSequence, SequenceTracker.sequence(event));
 
-        this.alarmForwarder.postAlarm(session.sessionId, alarm.build());
+            this.checkCompletion(source, session);
+        }
     }
 
     /**
@@ -341,12 +686,44 @@ public class EventHandler implements EventListener {
         InetAddress iface;
     }
 
+    public enum State {
+        ACTIVE,
+        FINISHED,
+        TIMEOUT
+    }
+
+    @Value
+    @Builder
+    public static class Status {
+        String sessionId;
+        long nodeId;
+        String nodeLabel;
+        State state;
+        long created;
+        Map<String, Long> timings;
+    }
+
+    private static Status status(final Source source, final Session session, final State state) {
+        return Status.builder()
+                .sessionId(session.sessionId)
+                .nodeId(source.nodeId)
+                .nodeLabel(session.nodeLabel)
+                .state(state)
+                .created(session.timeline.getCreated().toEpochMilli())
+                .timings(session.timeline.summary())
+                .build();
+    }
+
     @Data
     @Builder
     private static class Session {
         @NonNull
         private String sessionId;
 
+        @NonNull
+        @Builder.Default
+        private SessionTimeline timeline = new SessionTimeline();
+
         @Builder.Default
         private Instant lastEvent = Instant.now();
 
@@ -359,6 +736,27 @@ public class EventHandler implements EventListener {
         @NonNull
         private String nodeLabel;
 
+        private CompletionConfig completion;
+
+        private AlarmCoalescer coalescer;
+
+        private Journal.Entry journalEntry;
+
+        @Builder.Default
+        private CompletableFuture<Void> ended = new CompletableFuture<>();
+
+        // Progress towards completion
+        @Builder.Default
+        private long received = 0;
+
+        @Builder.Default
+        private long lastSequence = -1;
+
+        @Builder.Default
+        private long expectedCount = -1;
+
+        @Builder.Default
+        private long expectedSequence = -1;
     }
 
     private TimerTask timer() {
@@ -368,6 +766,16 @@ public class EventHandler implements EventListener {
                 synchronized (EventHandler.this) {
                     final var now = Instant.now();
 
+                    // Publish coalesced alarms held for longer than the window, if any
+                    if (!EventHandler.this.coalesceWindow.isZero()) {
+                        final var deadline = now.minus(EventHandler.this.coalesceWindow).toEpochMilli();
+                        for (final var session : EventHandler.this.sessions.values()) {
+                            if (session.coalescer != null && session.coalescer.size() > 0 && session.coalescer.getOldest() < deadline) {
+                                EventHandler.this.drain(session);
+                            }
+                        }
+                    }
+
                     for (final var session : EventHandler.this.sessions.entrySet()) {
                         final var timeout = now.minus(session.getValue().getTimeout());
                         if (session.getValue().lastEvent.isBefore(timeout)) {
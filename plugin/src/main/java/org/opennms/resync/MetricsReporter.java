@@ -0,0 +1,117 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.jmx.JmxReporter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@RequiredArgsConstructor
+public class MetricsReporter {
+
+    private static final String JMX_DOMAIN = "org.opennms.plugins.resync";
+
+    @NonNull
+    private final MetricRegistry metrics;
+
+    private JmxReporter reporter;
+
+    public void start() {
+        this.reporter = JmxReporter.forRegistry(this.metrics)
+                .inDomain(JMX_DOMAIN)
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .convertRatesTo(TimeUnit.SECONDS)
+                .build();
+        this.reporter.start();
+    }
+
+    public void stop() {
+        if (this.reporter != null) {
+            this.reporter.stop();
+        }
+    }
+
+    public Map<String, Object> report() {
+        final var result = new TreeMap<String, Object>();
+        for (final var e : this.metrics.getMetrics().entrySet()) {
+            result.put(e.getKey(), report(e.getValue()));
+        }
+        return result;
+    }
+
+    private static Object report(final Metric metric) {
+        if (metric instanceof Gauge) {
+            return ((Gauge<?>) metric).getValue();
+        }
+
+        if (metric instanceof Counter) {
+            return ((Counter) metric).getCount();
+        }
+
+        final var result = new LinkedHashMap<String, Object>();
+
+        if (metric instanceof Metered) {
+            final var metered = (Metered) metric;
+            result.put("count", metered.getCount());
+            result.put("meanRate", metered.getMeanRate());
+            result.put("m1Rate", metered.getOneMinuteRate());
+            result.put("m5Rate", metered.getFiveMinuteRate());
+        }
+
+        if (metric instanceof Timer) {
+            report(result, ((Timer) metric).getSnapshot(), TimeUnit.MILLISECONDS.toNanos(1));
+        } else if (metric instanceof Histogram) {
+            result.put("count", ((Histogram) metric).getCount());
+            report(result, ((Histogram) metric).getSnapshot(), 1);
+        } else if (!(metric instanceof Meter)) {
+            log.debug("Unsupported metric type: {}", metric.getClass());
+        }
+
+        return result;
+    }
+
+    private static void report(final Map<String, Object> result, final Snapshot snapshot, final double scale) {
+        result.put("min", snapshot.getMin() / scale);
+        result.put("mean", snapshot.getMean() / scale);
+        result.put("p50", snapshot.getMedian() / scale);
+        result.put("p95", snapshot.get95thPercentile() / scale);
+        result.put("p99", snapshot.get99thPercentile() / scale);
+        result.put("max", snapshot.getMax() / scale);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.opennms.integration.api.v1.dao.NodeDao;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.events.api.model.IEvent;
+import org.opennms.resync.config.Configs;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.opennms.resync.constants.Events.UEI_COLD_START;
+import static org.opennms.resync.constants.Events.UEI_INTERFACE_UP;
+import static org.opennms.resync.constants.Events.UEI_NODE_UP;
+import static org.opennms.resync.constants.Events.UEI_WARM_START;
+
+/**
+ * Requests a resync of nodes which have recovered or whose agent has been restarted.
+ *
+ * Only nodes of kinds with {@code resyncOnRecovery} enabled are resynced. The resync is delayed by the debounce time
+ * and postponed by further recovery events of the same node.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class RecoveryHandler implements EventListener {
+
+    @NonNull
+    private final EventSubscriptionService eventSubscriptionService;
+
+    @NonNull
+    private final NodeDao nodeDao;
+
+    @NonNull
+    private final Configs configs;
+
+    @NonNull
+    private final ResyncScheduler resyncScheduler;
+
+    private boolean enabled = false;
+
+    private List<String> ueis = List.of(UEI_NODE_UP, UEI_INTERFACE_UP, UEI_COLD_START, UEI_WARM_START);
+
+    private Duration debounce = Duration.ofSeconds(30);
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setUeis(final String ueis) {
+        this.ueis = Arrays.stream(ueis.split(","))
+                .map(String::trim)
+                .filter(uei -> !uei.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    public void setDebounce(final long debounce) {
+        this.debounce = Duration.ofMillis(debounce);
+    }
+
+    public void start() {
+        if (this.enabled && !this.ueis.isEmpty()) {
+            this.eventSubscriptionService.addEventListener(this, this.ueis);
+        }
+    }
+
+    public void stop() {
+        if (this.enabled && !this.ueis.isEmpty()) {
+            this.eventSubscriptionService.removeEventListener(this);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "resync-recovery-handler";
+    }
+
+    @Override
+    public void onEvent(final IEvent event) {
+        if (event.getNodeid() == null || event.getNodeid() == 0) {
+            return;
+        }
+
+        final var node = this.nodeDao.getNodeById(event.getNodeid().intValue());
+        if (node == null) {
+            return;
+        }
+
+        try {
+            final var config = this.configs.load();
+
+            final var nodeConfig = config.getNodes().get(node.getLabel());
+            if (nodeConfig == null) {
+                return;
+            }
+
+            final var kindConfig = config.getKinds().get(nodeConfig.getKind());
+            if (kindConfig == null || !kindConfig.isResyncOnRecovery()) {
+                return;
+            }
+        } catch (final IOException e) {
+            log.warn("Failed to load config", e);
+            return;
+        }
+
+        log.debug("Node recovered: {} ({})", node.getLabel(), event.getUei());
+
+        this.resyncScheduler.request(event.getNodeid(), this.debounce, "recovery", Collections.emptyMap());
+    }
+}
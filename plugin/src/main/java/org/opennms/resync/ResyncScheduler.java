@@ -0,0 +1,472 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.hash.Hashing;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.opennms.integration.api.v1.dao.NodeDao;
+import org.opennms.resync.config.Config;
+import org.opennms.resync.config.Configs;
+import org.opennms.resync.config.ScheduleConfig;
+import org.opennms.resync.flow.PriorityScheduler;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Resyncs nodes periodically according to the schedules in the resync config.
+ *
+ * Each node is assigned a fixed slot within the schedule interval derived from a hash of its node ID, which spreads
+ * the resyncs of all nodes evenly over the interval. Due resyncs are postponed while the number of running resyncs
+ * in the location of the node is at its limit. A resync counts as running until its session has ended.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class ResyncScheduler {
+
+    @NonNull
+    private final TriggerService triggerService;
+
+    @NonNull
+    private final EventHandler eventHandler;
+
+    @NonNull
+    private final Configs configs;
+
+    @NonNull
+    private final NodeDao nodeDao;
+
+    @NonNull
+    private final MetricRegistry metrics;
+
+    private Duration tick = Duration.ofSeconds(5);
+
+    private int maxConcurrentPerLocation = 4;
+
+    private ScheduledExecutorService executor;
+
+    // Runs the triggers, so looking up nodes and agents does not hold up the tick
+    private ExecutorService dispatcher;
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    // One-off resyncs requested by node ID
+    private final Map<Long, Pending> requests = new ConcurrentHashMap<>();
+
+    // Number of running scheduled resyncs by location
+    private final Map<String, Integer> running = new HashMap<>();
+
+    public void setTick(final long tick) {
+        this.tick = Duration.ofMillis(tick);
+    }
+
+    public void setMaxConcurrentPerLocation(final int maxConcurrentPerLocation) {
+        this.maxConcurrentPerLocation = maxConcurrentPerLocation;
+    }
+
+    public void start() {
+        this.metrics.register("schedule.running", (Gauge<Integer>) this::running);
+
+        this.dispatcher = Executors.newCachedThreadPool(r -> new Thread(r, "resync-scheduler-dispatch"));
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "resync-scheduler"));
+        this.executor.scheduleWithFixedDelay(this::tick, this.tick.toMillis(), this.tick.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+
+        if (this.dispatcher != null) {
+            this.dispatcher.shutdown();
+        }
+
+        this.metrics.removeMatching((name, metric) -> name.startsWith("schedule."));
+    }
+
+    /**
+     * Requests a one-off resync of a node after the given delay.
+     *
+     * Repeated requests before the resync has started postpone it, so a burst of requests results in a single resync.
+     * A request without parameters asks for a full resync and supersedes requests with parameters. Otherwise, the
+     * parameters of the first pending request are kept.
+     */
+    public void request(final long nodeId, final Duration delay, final String reason, final Map<String, Object> parameters) {
+        final var due = Instant.now().plus(delay);
+        this.requests.merge(nodeId, new Pending(nodeId, due, reason, parameters), (existing, request) ->
+                !request.parameters.isEmpty()
+                        ? new Pending(nodeId, due, existing.reason, existing.parameters)
+                        : request);
+
+        this.metrics.meter("schedule.requested").mark();
+    }
+
+    public List<Status> getStatus() {
+        final var result = new ArrayList<Status>(this.entries.size());
+        for (final var entry : this.entries.values()) {
+            synchronized (entry) {
+                result.add(Status.builder()
+                        .schedule(entry.key.schedule)
+                        .node(entry.key.node)
+                        .nodeId(entry.nodeId)
+                        .location(entry.location)
+                        .interval(entry.interval)
+                        .lastRun(entry.lastRun != null ? entry.lastRun.toEpochMilli() : null)
+                        .lastResult(entry.lastResult)
+                        .nextRun(entry.nextRun != null ? entry.nextRun.toEpochMilli() : null)
+                        .running(entry.running)
+                        .build());
+            }
+        }
+        for (final var request : this.requests.values()) {
+            result.add(Status.builder()
+                    .schedule(request.reason)
+                    .nodeId(request.nodeId)
+                    .nextRun(request.due.toEpochMilli())
+                    .build());
+        }
+        return result;
+    }
+
+    private void tick() {
+        try {
+            this.tickRequests(Instant.now());
+        } catch (final RuntimeException e) {
+            log.error("Requested resyncs failed", e);
+        }
+
+        final Config config;
+        try {
+            config = this.configs.load();
+        } catch (final IOException e) {
+            log.warn("Failed to load schedules", e);
+            return;
+        }
+
+        final var now = Instant.now();
+        final var active = new HashSet<Key>();
+
+        for (final var schedule : config.getSchedules().entrySet()) {
+            for (final var node : this.nodes(config, schedule.getValue())) {
+                final var key = new Key(schedule.getKey(), node);
+
+                final var entry = this.entries.computeIfAbsent(key, this::entry);
+                if (entry == null) {
+                    continue;
+                }
+
+                active.add(key);
+
+                try {
+                    this.tick(entry, schedule.getValue(), now);
+                } catch (final RuntimeException e) {
+                    log.error("Scheduled resync failed: {}", key, e);
+                }
+            }
+        }
+
+        this.entries.keySet().retainAll(active);
+    }
+
+    private void tick(final Entry entry, final ScheduleConfig schedule, final Instant now) {
+        synchronized (entry) {
+            if (entry.interval != schedule.getInterval()) {
+                entry.interval = schedule.getInterval();
+                entry.nextRun = entry.slot(entry.lastRun != null ? entry.lastRun : now);
+            }
+
+            if (entry.running || now.isBefore(entry.nextRun)) {
+                return;
+            }
+        }
+
+        final var limit = schedule.getMaxConcurrentPerLocation() != null
+                ? schedule.getMaxConcurrentPerLocation()
+                : this.maxConcurrentPerLocation;
+        if (!this.acquire(entry.location, limit)) {
+            return;
+        }
+
+        final var request = TriggerService.Request.builder()
+                .nodeCriteria(entry.key.node)
+                .sessionId(entry.key.schedule + ":" + entry.nodeId + ":" + now.toEpochMilli())
+                .kind(schedule.getKind())
+                .parameters(new HashMap<>(schedule.getParameters()))
+                .sessionTimeout(schedule.getTimeout() != null ? Duration.ofMillis(schedule.getTimeout()) : null)
+                .priority(PriorityScheduler.Lane.BULK)
+                .build();
+
+        synchronized (entry) {
+            entry.running = true;
+            entry.lastRun = now;
+            entry.nextRun = entry.slot(now);
+        }
+
+        this.dispatch(request).whenComplete((ok, ex) -> {
+            this.release(entry.location);
+
+            if (rejected(ex)) {
+                // Try again on the next tick
+                synchronized (entry) {
+                    entry.running = false;
+                    entry.nextRun = now;
+                }
+                this.metrics.meter("schedule.rejected").mark();
+                return;
+            }
+
+            this.completed(entry, ex);
+        });
+
+        this.metrics.meter("schedule.triggered").mark();
+    }
+
+    private void tickRequests(final Instant now) {
+        for (final var request : this.requests.values()) {
+            if (now.isBefore(request.due)) {
+                continue;
+            }
+
+            final var node = this.nodeDao.getNodeById((int) request.nodeId);
+            if (node == null) {
+                this.requests.remove(request.nodeId, request);
+                continue;
+            }
+
+            if (!this.acquire(node.getLocation(), this.maxConcurrentPerLocation)) {
+                continue;
+            }
+
+            // Leave the request in place if it has been postponed in the meantime
+            if (!this.requests.remove(request.nodeId, request)) {
+                this.release(node.getLocation());
+                continue;
+            }
+
+            this.dispatch(TriggerService.Request.builder()
+                    .nodeCriteria(node.getLabel())
+                    .sessionId(request.reason + ":" + request.nodeId + ":" + now.toEpochMilli())
+                    .parameters(new HashMap<>(request.parameters))
+                    .priority(PriorityScheduler.Lane.TARGETED)
+                    .build())
+                    .whenComplete((ok, ex) -> {
+                        this.release(node.getLocation());
+
+                        if (rejected(ex)) {
+                            // Try again on the next tick unless requested again in the meantime
+                            this.requests.putIfAbsent(request.nodeId, request);
+                            this.metrics.meter("schedule.rejected").mark();
+                            return;
+                        }
+
+                        if (ex != null) {
+                            log.warn("Requested resync failed: {} ({})", node.getLabel(), request.reason, ex);
+                            this.metrics.meter("schedule.failed").mark();
+                        }
+                    });
+
+            this.metrics.meter("schedule.triggered").mark();
+        }
+    }
+
+    /**
+     * Triggers a resync on the dispatcher.
+     *
+     * The returned future completes with the outcome of the trigger once the session opened by it has ended, so the
+     * resync keeps its slot until all of its alarms have been received.
+     */
+    private CompletableFuture<Void> dispatch(final TriggerService.Request request) {
+        final CompletableFuture<CompletableFuture<Void>> triggered;
+        try {
+            triggered = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return this.triggerService.trigger(request);
+                } catch (final IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, this.dispatcher);
+        } catch (final RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return triggered
+                .thenCompose(Function.identity())
+                .handle((ok, ex) -> this.eventHandler.awaitSession(request.getSessionId())
+                        .thenCompose(ignored -> ex != null
+                                ? CompletableFuture.<Void>failedFuture(ex)
+                                : CompletableFuture.<Void>completedFuture(null)))
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * @return whether the trigger has been rejected by flow control, the rate limiter or the scheduler
+     */
+    private static boolean rejected(Throwable ex) {
+        while (ex instanceof CompletionException && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return ex instanceof RejectedExecutionException;
+    }
+
+    private void completed(final Entry entry, final Throwable ex) {
+        if (ex != null) {
+            log.warn("Scheduled resync failed: {}", entry.key, ex);
+            this.metrics.meter("schedule.failed").mark();
+        }
+
+        synchronized (entry) {
+            entry.running = false;
+            entry.lastResult = ex == null
+                    ? "success"
+                    : "failed: " + ex.getMessage();
+        }
+    }
+
+    private List<String> nodes(final Config config, final ScheduleConfig schedule) {
+        if (!schedule.getNodes().isEmpty()) {
+            return schedule.getNodes();
+        }
+
+        final var result = new ArrayList<String>();
+        config.getNodes().forEach((label, node) -> {
+            if (schedule.getKind().equals(node.getKind())) {
+                result.add(label);
+            }
+        });
+        return result;
+    }
+
+    private Entry entry(final Key key) {
+        var node = this.nodeDao.getNodeByLabel(key.node);
+        if (node == null) {
+            node = this.nodeDao.getNodeByCriteria(key.node);
+        }
+
+        if (node == null) {
+            log.debug("Scheduled node not found: {}", key);
+            return null;
+        }
+
+        return new Entry(key, node.getId(), node.getLocation());
+    }
+
+    private synchronized boolean acquire(final String location, final int limit) {
+        final int current = this.running.getOrDefault(location, 0);
+        if (current >= limit) {
+            return false;
+        }
+
+        this.running.put(location, current + 1);
+        return true;
+    }
+
+    private synchronized void release(final String location) {
+        this.running.computeIfPresent(location, (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    private synchronized int running() {
+        return this.running.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    @Value
+    private static class Pending {
+        long nodeId;
+        Instant due;
+        String reason;
+        Map<String, Object> parameters;
+    }
+
+    @Value
+    private static class Key {
+        String schedule;
+        String node;
+    }
+
+    private static class Entry {
+        private final Key key;
+        private final long nodeId;
+        private final String location;
+
+        // Offset of the slot of this node relative to the start of each interval
+        private final long hash;
+
+        private long interval = -1;
+
+        private Instant lastRun;
+        private String lastResult;
+        private Instant nextRun;
+        private boolean running = false;
+
+        private Entry(final Key key, final long nodeId, final String location) {
+            this.key = key;
+            this.nodeId = nodeId;
+            this.location = location;
+            this.hash = Hashing.murmur3_128().hashLong(nodeId).asLong();
+        }
+
+        /**
+         * @return the first slot of this node after the given time
+         */
+        private Instant slot(final Instant after) {
+            final var offset = Math.floorMod(this.hash, this.interval);
+            final var periods = Math.floorDiv(after.toEpochMilli() - offset, this.interval) + 1;
+            return Instant.ofEpochMilli(periods * this.interval + offset);
+        }
+    }
+
+    @Value
+    @Builder
+    public static class Status {
+        String schedule;
+        String node;
+        long nodeId;
+        String location;
+        long interval;
+        Long lastRun;
+        String lastResult;
+        Long nextRun;
+        boolean running;
+    }
+}
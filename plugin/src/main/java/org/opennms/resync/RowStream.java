@@ -0,0 +1,167 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams walked rows as newline delimited JSON while the walk progresses.
+ *
+ * Rows are handed over through a bounded queue without ever blocking the walk, as rows arrive on the shared SNMP client
+ * thread. If the client falls behind by more than the queue capacity, the stream is given up and terminated by an
+ * error line instead of buffering the table. Otherwise the stream is terminated by a final line holding the action
+ * response. Replayed rows wait for room in the queue instead, as they do not hold up the walk.
+ */
+@Slf4j
+public class RowStream implements StreamingOutput, ActionService.RowConsumer {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final int CAPACITY = 1024;
+
+    private static final long POLL_INTERVAL = 10;
+
+    // Keeps room for the final line
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(CAPACITY + 1);
+
+    private final Duration timeout;
+
+    private volatile boolean broken = false;
+
+    public RowStream(final Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public synchronized void accept(final Map<String, String> row) {
+        if (this.broken) {
+            return;
+        }
+
+        if (this.queue.size() >= CAPACITY) {
+            this.abandon();
+            return;
+        }
+
+        this.queue.offer(row);
+    }
+
+    @Override
+    public void replay(final Map<String, String> row) throws InterruptedException {
+        final var deadline = System.nanoTime() + this.timeout.toNanos();
+
+        while (!this.broken) {
+            synchronized (this) {
+                if (this.queue.size() < CAPACITY) {
+                    this.queue.offer(row);
+                    return;
+                }
+            }
+
+            if (System.nanoTime() - deadline > 0) {
+                synchronized (this) {
+                    this.abandon();
+                }
+                return;
+            }
+
+            Thread.sleep(POLL_INTERVAL);
+        }
+    }
+
+    private void abandon() {
+        if (this.broken) {
+            return;
+        }
+
+        log.warn("Client does not keep up with streamed rows - giving up streaming");
+        this.broken = true;
+
+        this.queue.clear();
+        this.queue.offer(new End(ActionHandler.ActionResponse.builder()
+                .status("error")
+                .message("Client did not keep up with streamed rows")
+                .build()));
+    }
+
+    public synchronized void complete(final ActionHandler.ActionResponse response) {
+        if (this.broken) {
+            return;
+        }
+
+        this.queue.offer(new End(response));
+    }
+
+    @Override
+    public void write(final OutputStream output) throws IOException {
+        try {
+            while (true) {
+                final var element = this.queue.poll(this.timeout.toMillis(), TimeUnit.MILLISECONDS);
+                if (element == null) {
+                    this.write(output, ActionHandler.ActionResponse.builder()
+                            .status("error")
+                            .message("Action execution timed out")
+                            .build());
+                    break;
+                }
+
+                if (element instanceof End) {
+                    this.write(output, ((End) element).response);
+                    break;
+                }
+
+                this.write(output, element);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Stop accepting rows if the client went away
+            this.broken = true;
+            this.queue.clear();
+        }
+    }
+
+    private void write(final OutputStream output, final Object element) throws IOException {
+        output.write(OBJECT_MAPPER.writeValueAsBytes(element));
+        output.write('\n');
+        output.flush();
+    }
+
+    private static class End {
+        private final ActionHandler.ActionResponse response;
+
+        private End(final ActionHandler.ActionResponse response) {
+            this.response = response;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.opennms.integration.api.v1.dao.NodeDao;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.events.api.model.IEvent;
+import org.opennms.resync.config.Configs;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.opennms.resync.constants.Events.EVENT_SOURCE;
+import static org.opennms.resync.constants.Events.UEI_RESYNC_ALARM;
+
+/**
+ * Detects lost traps by following the sequence IDs carried by the traps of each node and requests a resync of the
+ * node if traps are missing.
+ *
+ * A gap in the sequence requests an incremental resync starting at the first missing sequence ID if the kind of the
+ * node defines a {@code sequenceParameter}, and a full resync otherwise. A sequence ID lower than the last one beyond
+ * the reorder window is considered a reset of the agent and always requests a full resync. Resyncs start after the
+ * settle delay, so a burst of gaps results in a single resync.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class SequenceGapHandler implements EventListener {
+
+    @NonNull
+    private final EventSubscriptionService eventSubscriptionService;
+
+    @NonNull
+    private final NodeDao nodeDao;
+
+    @NonNull
+    private final Configs configs;
+
+    @NonNull
+    private final ResyncScheduler resyncScheduler;
+
+    @NonNull
+    private final MetricRegistry metrics;
+
+    private final SequenceTracker tracker = new SequenceTracker();
+
+    private boolean enabled = false;
+
+    private List<String> ueis = Collections.emptyList();
+
+    private Duration settleDelay = Duration.ofSeconds(5);
+
+    private long reorderWindow = 16;
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setUeis(final String ueis) {
+        this.ueis = Arrays.stream(ueis.split(","))
+                .map(String::trim)
+                .filter(uei -> !uei.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    public void setSettleDelay(final long settleDelay) {
+        this.settleDelay = Duration.ofMillis(settleDelay);
+    }
+
+    public void setReorderWindow(final long reorderWindow) {
+        this.reorderWindow = reorderWindow;
+    }
+
+    public void start() {
+        if (!this.enabled) {
+            return;
+        }
+
+        // Inspecting every event for a sequence ID would put the whole event stream through the handler
+        if (this.ueis.isEmpty()) {
+            log.error("Trap loss detection is enabled without UEIs of the traps to inspect - disabling it");
+            this.enabled = false;
+            return;
+        }
+
+        this.metrics.register("sequence.nodes", (Gauge<Integer>) this.tracker::size);
+
+        this.eventSubscriptionService.addEventListener(this, this.ueis);
+    }
+
+    public void stop() {
+        if (!this.enabled) {
+            return;
+        }
+
+        this.eventSubscriptionService.removeEventListener(this);
+        this.metrics.removeMatching((name, metric) -> name.startsWith("sequence."));
+    }
+
+    @Override
+    public String getName() {
+        return "resync-sequence-gap-handler";
+    }
+
+    @Override
+    public void onEvent(final IEvent event) {
+        if (event.getNodeid() == null || event.getNodeid() == 0) {
+            return;
+        }
+
+        // Alarms replayed during a resync carry the sequence IDs of the original traps
+        if (EVENT_SOURCE.equals(event.getSource()) || UEI_RESYNC_ALARM.equals(event.getUei())) {
+            return;
+        }
+
+        final var sequence = SequenceTracker.sequence(event);
+        if (sequence < 0) {
+            return;
+        }
+
+        final long nodeId = event.getNodeid();
+
+        final var previous = this.tracker.advance(nodeId, sequence, this.reorderWindow);
+        if (previous == SequenceTracker.NONE || sequence == previous || sequence == previous + 1) {
+            return;
+        }
+
+        if (sequence > previous) {
+            this.metrics.meter("sequence.gaps").mark();
+            this.metrics.meter("sequence.missed").mark(sequence - previous - 1);
+
+            log.debug("Sequence gap on node {}: {} -> {}", nodeId, previous, sequence);
+            this.request(nodeId, previous + 1, "sequence-gap");
+
+        } else if (previous - sequence <= this.reorderWindow) {
+            // A late trap - the tracker keeps following the newer sequence
+            this.metrics.meter("sequence.reordered").mark();
+
+        } else {
+            this.metrics.meter("sequence.resets").mark();
+
+            log.debug("Sequence reset on node {}: {} -> {}", nodeId, previous, sequence);
+            this.request(nodeId, -1, "sequence-reset");
+        }
+    }
+
+    private void request(final long nodeId, final long from, final String reason) {
+        final var node = this.nodeDao.getNodeById((int) nodeId);
+        if (node == null) {
+            return;
+        }
+
+        final String parameter;
+        try {
+            final var config = this.configs.load();
+
+            final var nodeConfig = config.getNodes().get(node.getLabel());
+            if (nodeConfig == null) {
+                return;
+            }
+
+            final var kindConfig = config.getKinds().get(nodeConfig.getKind());
+            if (kindConfig == null) {
+                return;
+            }
+
+            parameter = kindConfig.getSequenceParameter();
+        } catch (final IOException e) {
+            log.warn("Failed to load config", e);
+            return;
+        }
+
+        this.resyncScheduler.request(nodeId, this.settleDelay, reason, parameter != null && from >= 0
+                ? Map.of(parameter, from)
+                : Collections.emptyMap());
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync;
+
+import org.opennms.netmgt.events.api.model.IEvent;
+import org.opennms.resync.constants.MIB;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the last sequence ID seen per node.
+ *
+ * Backed by an open-addressing hash table of primitive longs, so tracking a sequence ID does not allocate.
+ */
+public class SequenceTracker {
+
+    public static final long NONE = Long.MIN_VALUE;
+
+    // Trap varbinds are named by their OID, which includes the instance
+    private static final String SEQUENCE_PARM = MIB.OID_NIB_SEQUENCE_ID.toString().replaceFirst("^\\.", "");
+
+    // Node ID 0 is never assigned and marks empty slots
+    private static final long EMPTY = 0L;
+
+    private long[] keys;
+    private long[] values;
+
+    private int size = 0;
+
+    public SequenceTracker() {
+        this(256);
+    }
+
+    public SequenceTracker(final int capacity) {
+        final var slots = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.keys = new long[slots];
+        this.values = new long[slots];
+    }
+
+    /**
+     * Records the sequence ID for a node.
+     *
+     * @return the previously recorded sequence ID of the node or {@link #NONE} if the node has not been seen before
+     */
+    public synchronized long update(final long nodeId, final long sequence) {
+        final var slot = this.slot(this.keys, nodeId);
+        if (this.keys[slot] == nodeId) {
+            final var previous = this.values[slot];
+            this.values[slot] = sequence;
+            return previous;
+        }
+
+        this.keys[slot] = nodeId;
+        this.values[slot] = sequence;
+
+        if (++this.size * 4 > this.keys.length * 3) {
+            this.grow();
+        }
+
+        return NONE;
+    }
+
+    /**
+     * Records the sequence ID for a node unless it is a late one.
+     *
+     * A sequence ID at most {@code window} below the recorded one is considered late and keeps the recorded one, so
+     * the tracker follows the newest sequence ID. Any other sequence ID replaces the recorded one.
+     *
+     * @return the previously recorded sequence ID of the node or {@link #NONE} if the node has not been seen before
+     */
+    public synchronized long advance(final long nodeId, final long sequence, final long window) {
+        final var slot = this.slot(this.keys, nodeId);
+        if (this.keys[slot] == nodeId) {
+            final var previous = this.values[slot];
+            if (sequence >= previous || previous - sequence > window) {
+                this.values[slot] = sequence;
+            }
+            return previous;
+        }
+
+        return this.update(nodeId, sequence);
+    }
+
+    /**
+     * @return the last sequence ID recorded for a node or {@link #NONE} if the node has not been seen before
+     */
+    public synchronized long get(final long nodeId) {
+        final var slot = this.slot(this.keys, nodeId);
+        return this.keys[slot] == nodeId
+                ? this.values[slot]
+                : NONE;
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(this.keys, EMPTY);
+        this.size = 0;
+    }
+
+    /**
+     * @return the sequence ID carried by the NBI trap or {@code -1} if there is none
+     */
+    public static long sequence(final IEvent event) {
+        for (final var parm : event.getParmCollection()) {
+            final var name = parm.getParmName();
+            if (name == null) {
+                continue;
+            }
+
+            final var offset = name.startsWith(".") ? 1 : 0;
+            if (!name.startsWith(SEQUENCE_PARM, offset)) {
+                continue;
+            }
+
+            final var end = offset + SEQUENCE_PARM.length();
+            if (name.length() != end && name.charAt(end) != '.') {
+                continue;
+            }
+
+            if (parm.getValue() == null || parm.getValue().getContent() == null) {
+                return -1;
+            }
+
+            try {
+                return Long.parseLong(parm.getValue().getContent().trim());
+            } catch (final NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    private int slot(final long[] keys, final long nodeId) {
+        if (nodeId == EMPTY) {
+            throw new IllegalArgumentException("Invalid node ID: " + nodeId);
+        }
+
+        final var mask = keys.length - 1;
+
+        var slot = (int) mix(nodeId) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != nodeId) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void grow() {
+        final var keys = this.keys;
+        final var values = this.values;
+
+        this.keys = new long[keys.length * 2];
+        this.values = new long[values.length * 2];
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                final var slot = this.slot(this.keys, keys[i]);
+                this.keys[slot] = keys[i];
+                this.values[slot] = values[i];
+            }
+        }
+    }
+
+    // Finalizer of murmur3 to spread sequential node IDs over the table
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb93fe51a1ca5L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
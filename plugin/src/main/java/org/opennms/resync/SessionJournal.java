@@ -0,0 +1,230 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.resync.config.CompletionConfig;
+import org.opennms.resync.storage.Journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists the open resync sessions to survive restarts of the bundle.
+ *
+ * A record is appended when a session is created and marked as consumed in place when the session is closed, so each
+ * session costs a single append and a single write to the memory-mapped journal.
+ */
+@Slf4j
+public class SessionJournal implements Closeable {
+    private static final byte VERSION = 2;
+
+    // Records of version 1 carry no completion rules
+    private static final byte VERSION_WITHOUT_COMPLETION = 1;
+
+    private final Journal journal;
+
+    public SessionJournal(final Path directory, final int segmentSize) throws IOException {
+        this.journal = new Journal(directory, segmentSize);
+    }
+
+    /**
+     * @return the journal entry of the session or {@code null} if it could not be persisted
+     */
+    public Journal.Entry opened(final Record record) {
+        try {
+            return this.journal.append(encode(record));
+        } catch (final IOException e) {
+            log.warn("Failed to journal session: {}", record.sessionId, e);
+            return null;
+        }
+    }
+
+    public void closed(final Journal.Entry entry) {
+        if (entry == null) {
+            return;
+        }
+
+        try {
+            this.journal.consume(entry);
+        } catch (final IOException e) {
+            log.warn("Failed to remove session from journal", e);
+        }
+    }
+
+    /**
+     * @return the sessions which have not been closed before the journal was closed
+     */
+    public List<Recovered> recover() {
+        final var result = new ArrayList<Recovered>();
+        for (final var entry : this.journal.recover()) {
+            try {
+                result.add(new Recovered(entry, decode(entry.getData())));
+            } catch (final IOException e) {
+                log.warn("Dropping unreadable session from journal", e);
+                this.closed(entry);
+            }
+        }
+        return result;
+    }
+
+    public long getPending() {
+        return this.journal.getPending();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.journal.close();
+    }
+
+    private static byte[] encode(final Record record) throws IOException {
+        final var bytes = new ByteArrayOutputStream(128);
+        try (final var out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeUTF(record.sessionId);
+            out.writeLong(record.nodeId);
+
+            final var iface = record.iface != null ? record.iface.getAddress() : new byte[0];
+            out.writeByte(iface.length);
+            out.write(iface);
+
+            out.writeUTF(record.nodeLabel);
+            out.writeLong(record.timeout.toMillis());
+            out.writeLong(record.created);
+
+            out.writeShort(record.parameters.size());
+            for (final var parameter : record.parameters.entrySet()) {
+                out.writeUTF(parameter.getKey());
+                out.writeUTF(parameter.getValue());
+            }
+
+            out.writeBoolean(record.completion != null);
+            if (record.completion != null) {
+                writeString(out, record.completion.getEndUei());
+                writeString(out, record.completion.getStartUei());
+                writeString(out, record.completion.getCountParameter());
+                writeString(out, record.completion.getSequenceOid() != null ? record.completion.getSequenceOid().toString() : null);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Record decode(final byte[] data) throws IOException {
+        try (final var in = new DataInputStream(new ByteArrayInputStream(data))) {
+            final var version = in.readByte();
+            if (version != VERSION && version != VERSION_WITHOUT_COMPLETION) {
+                throw new IOException("Unsupported journal record version: " + version);
+            }
+
+            final var record = Record.builder();
+            record.sessionId(in.readUTF());
+            record.nodeId(in.readLong());
+
+            final var iface = new byte[in.readUnsignedByte()];
+            in.readFully(iface);
+            record.iface(iface.length > 0 ? InetAddress.getByAddress(iface) : null);
+
+            record.nodeLabel(in.readUTF());
+            record.timeout(Duration.ofMillis(in.readLong()));
+            record.created(in.readLong());
+
+            final var parameters = new LinkedHashMap<String, String>();
+            final var count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                parameters.put(in.readUTF(), in.readUTF());
+            }
+            record.parameters(parameters);
+
+            if (version != VERSION_WITHOUT_COMPLETION && in.readBoolean()) {
+                final var completion = CompletionConfig.builder();
+                completion.endUei(readString(in));
+                completion.startUei(readString(in));
+                completion.countParameter(readString(in));
+
+                final var sequenceOid = readString(in);
+                completion.sequenceOid(sequenceOid != null ? SnmpObjId.get(sequenceOid) : null);
+
+                record.completion(completion.build());
+            }
+
+            return record.build();
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @Value
+    @Builder
+    public static class Record {
+        @NonNull
+        String sessionId;
+
+        long nodeId;
+
+        InetAddress iface;
+
+        @NonNull
+        String nodeLabel;
+
+        @NonNull
+        Duration timeout;
+
+        long created;
+
+        @NonNull
+        Map<String, String> parameters;
+
+        // Completion rules of SET sessions, null for sessions ending on the finished event or the timeout
+        CompletionConfig completion;
+    }
+
+    @Value
+    public static class Recovered {
+        Journal.Entry entry;
+        Record record;
+    }
+}
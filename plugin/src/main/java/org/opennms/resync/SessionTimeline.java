@@ -0,0 +1,132 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records when a resync session passed each stage of the pipeline, relative to the trigger being accepted.
+ */
+public class SessionTimeline {
+
+    public enum Stage {
+        TRIGGERED,
+        WALK_STARTED,
+        FIRST_ROW,
+        LAST_ROW,
+        STARTED,
+        FIRST_ALARM,
+        FINISHED,
+        // Reached only after the end marker carrying the timings has been published
+        END_ACKED;
+
+        public String label() {
+            return this.name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    @Getter
+    private final Instant created;
+
+    private final long origin;
+
+    private final long[] marks = new long[Stage.values().length];
+
+    public SessionTimeline() {
+        this(Instant.now());
+    }
+
+    /**
+     * Creates the timeline of a session triggered at the given time, like a session recovered after a restart.
+     */
+    public SessionTimeline(final Instant created) {
+        this.created = created;
+        this.origin = System.nanoTime() - Duration.between(created, Instant.now()).toNanos();
+
+        Arrays.fill(this.marks, -1L);
+        this.marks[Stage.TRIGGERED.ordinal()] = 0L;
+    }
+
+    /**
+     * Marks the stage if it has not been reached before.
+     */
+    public synchronized void mark(final Stage stage) {
+        if (this.marks[stage.ordinal()] < 0) {
+            this.marks[stage.ordinal()] = System.nanoTime() - this.origin;
+        }
+    }
+
+    /**
+     * Marks the stage, overwriting any earlier mark.
+     */
+    public synchronized void update(final Stage stage) {
+        this.marks[stage.ordinal()] = System.nanoTime() - this.origin;
+    }
+
+    /**
+     * @return the milliseconds since the trigger for all reached stages
+     */
+    public synchronized Map<String, Long> summary() {
+        final var result = new LinkedHashMap<String, Long>();
+        for (final var stage : Stage.values()) {
+            if (this.marks[stage.ordinal()] >= 0) {
+                result.put(stage.label(), TimeUnit.NANOSECONDS.toMillis(this.marks[stage.ordinal()]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the milliseconds since the trigger for all reached stages which can be published with the end marker
+     */
+    public synchronized Map<String, Long> published() {
+        final var result = this.summary();
+        result.remove(Stage.END_ACKED.label());
+        return result;
+    }
+
+    /**
+     * Records the time spent between each reached stage and the previously reached one.
+     */
+    public synchronized void report(final MetricRegistry metrics) {
+        var previous = 0L;
+        for (final var stage : Stage.values()) {
+            final var mark = this.marks[stage.ordinal()];
+            if (mark < 0 || stage == Stage.TRIGGERED) {
+                continue;
+            }
+
+            metrics.histogram(MetricRegistry.name("sessions.stage", stage.label()))
+                    .update(TimeUnit.NANOSECONDS.toMillis(Math.max(0, mark - previous)));
+            previous = Math.max(previous, mark);
+        }
+    }
+}
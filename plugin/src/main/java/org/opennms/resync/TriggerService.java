@@ -22,6 +22,7 @@
 
 package org.opennms.resync;
 
+import com.codahale.metrics.MetricRegistry;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -35,13 +36,18 @@ import org.opennms.integration.api.v1.model.Node;
 import org.opennms.netmgt.config.api.SnmpAgentConfigFactory;
 import org.opennms.netmgt.events.api.EventForwarder;
 import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpRowResult;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.snmp.TableTracker;
 import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
 import org.opennms.netmgt.snmp.snmp4j.Snmp4JValueFactory;
+import org.opennms.resync.config.CompletionConfig;
 import org.opennms.resync.config.Configs;
+import org.opennms.resync.flow.FlowControl;
+import org.opennms.resync.flow.PriorityScheduler;
+import org.opennms.resync.flow.RateLimiter;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -51,12 +57,14 @@ import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Future;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static org.opennms.resync.constants.Events.EVENT_SOURCE;
@@ -87,9 +95,24 @@ public class TriggerService {
     @NonNull
     private final Configs configs;
 
+    @NonNull
+    private final FlowControl flowControl;
+
+    @NonNull
+    private final MetricRegistry metrics;
+
+    @NonNull
+    private final RateLimiter rateLimiter;
+
+    @NonNull
+    private final PriorityScheduler scheduler;
+
 
     private Duration sessionTimeout;
 
+    // Runs admitted triggers, so callers like REST requests and schedules never emit events on their own thread
+    private ExecutorService executor;
+
 
 
     @Value
@@ -112,20 +135,36 @@ public class TriggerService {
 
         @Builder.Default
         Duration sessionTimeout = null;
+
+        @NonNull
+        @Builder.Default
+        PriorityScheduler.Lane priority = PriorityScheduler.Lane.TARGETED;
     }
 
     public void setSessionTimeout(Long timeout) {
         this.sessionTimeout = Duration.ofMillis(timeout);
     }
 
-    public Future<Void> trigger(final Request request) throws IOException {
+    public void start() {
+        this.executor = Executors.newCachedThreadPool(runnable -> new Thread(runnable, "resync-trigger"));
+    }
+
+    public void stop() {
+        if (this.executor != null) {
+            this.executor.shutdown();
+        }
+    }
+
+    public CompletableFuture<Void> trigger(final Request request) throws IOException {
         final var node = this.findNode(request.nodeCriteria);
 
         final var config = this.configs.getConfig(node.getLabel(), request.kind);
 
+        final var timeline = new SessionTimeline();
+
         switch (config.getMode()) {
-            case SET: return this.set(request, config);
-            case GET: return this.get(request, config);
+            case SET: return this.set(request, config, timeline);
+            case GET: return this.get(request, config, timeline);
             default: throw new IllegalStateException("Unsupported mode: " + config.getMode());
         }
     }
@@ -140,7 +179,7 @@ public class TriggerService {
         }
         throw new NullPointerException();
     }
-    private Future<Void> set(final Request request, final Configs.Entry config) throws IOException {
+    private CompletableFuture<Void> set(final Request request, final Configs.Entry config, final SessionTimeline timeline) throws IOException {
         log.info("trigger: set: {}", request);
 
         final var node = this.findNode(request.nodeCriteria);
@@ -159,23 +198,10 @@ public class TriggerService {
 
         Duration timeout = coerce(request.getSessionTimeout() , config.getTimeout(), this.sessionTimeout);
 
-        this.eventHandler.createSession(EventHandler.Source.builder()
-                        .nodeId(node.getId().longValue())
-                        .iface(iface.getIpAddress())
-                        .build(),
-                request.sessionId,
-                timeout,
-                node.getLabel(),
-                parameters);
-        // TODO: This excepts on duplicate session? Should we wait?
-
-        this.eventForwarder.sendNowSync(new EventBuilder()
-                .setTime(new Date())
-                .setSource(EVENT_SOURCE)
-                .setUei(UEI_RESYNC_STARTED)
-                .setNodeid(node.getId())
-                .setInterface(iface.getIpAddress())
-                .getEvent());
+        final var source = EventHandler.Source.builder()
+                .nodeId(node.getId().longValue())
+                .iface(iface.getIpAddress())
+                .build();
 
         final var result = new CompletableFuture<Void>();
 
@@ -194,9 +220,37 @@ public class TriggerService {
             vals.add(TriggerMapper.INSTANCE.snmpValue(value));
         }
 
-        final var response = this.snmpClient.set(agent, oids.toArray(SnmpObjId[]::new), vals.toArray(SnmpValue[]::new))
-                .withLocation(node.getLocation())
-                .execute();
+        // The session is only opened right before the SET, so waiting for admission, a slot or the rate limit does not
+        // count against its timeout and rejected triggers never announce a session
+        final var response = this.flowControl.admit()
+                .thenComposeAsync(permit -> withPermit(permit, () -> this.scheduler.submit(request.priority, () -> this.rateLimiter.acquire(node.getLocation(), agent, "resync." + config.getKind(), config.getRateLimit(), config.getRateBurst()), () -> {
+                            // TODO: This excepts on duplicate session? Should we wait?
+                            this.eventHandler.createSession(source,
+                                    request.sessionId,
+                                    timeout,
+                                    node.getLabel(),
+                                    parameters,
+                                    timeline,
+                                    config.getCompletion());
+
+                            this.eventForwarder.sendNowSync(new EventBuilder()
+                                    .setTime(new Date())
+                                    .setSource(EVENT_SOURCE)
+                                    .setUei(UEI_RESYNC_STARTED)
+                                    .setNodeid(node.getId())
+                                    .setInterface(iface.getIpAddress())
+                                    .getEvent());
+
+                            final var timer = this.metrics.timer(MetricRegistry.name("snmp.set", config.getKind(), node.getLocation())).time();
+
+                            timeline.mark(SessionTimeline.Stage.WALK_STARTED);
+
+                            return this.expectSequence(source, agent, node.getLocation(), config.getCompletion())
+                                    .thenCompose(expected -> this.snmpClient.set(agent, oids.toArray(SnmpObjId[]::new), vals.toArray(SnmpValue[]::new))
+                                            .withLocation(node.getLocation())
+                                            .execute())
+                                    .whenComplete((ok, ex) -> timer.stop());
+                        })), this.executor);
 
         response.whenComplete((ok, ex) -> {
             if (ex != null) {
@@ -209,7 +263,7 @@ public class TriggerService {
         return result;
     }
 
-    private Future<Void> get(final Request request, final Configs.Entry config) throws IOException {
+    private CompletableFuture<Void> get(final Request request, final Configs.Entry config, final SessionTimeline timeline) throws IOException {
         log.info("trigger: get: {}", request);
 
         final var node = this.findNode(request.nodeCriteria);
@@ -228,57 +282,150 @@ public class TriggerService {
 
         Duration timeout = coerce(request.getSessionTimeout() , config.getTimeout(), this.sessionTimeout);
 
-        return this.snmpClient.walk(agent, new AlarmTableTracker(config))
-                .withDescription("resync-get")
-                .withLocation(node.getLocation())
-                .execute()
-                .thenAccept(tracker -> {
-                    // TODO: This excepts on duplicate session? Should we wait?
-                    this.eventHandler.createSession(EventHandler.Source.builder()
-                                    .nodeId(node.getId().longValue())
-                                    .iface(iface.getIpAddress())
-                                    .build(),
-                            request.sessionId,
-                            timeout,
-                            node.getLabel(),
-                            parameters);
-
-                    this.eventForwarder.sendNowSync(new EventBuilder()
-                            .setTime(new Date())
-                            .setSource(EVENT_SOURCE)
-                            .setUei(UEI_RESYNC_STARTED)
-                            .setNodeid(node.getId())
-                            .setInterface(iface.getIpAddress())
-                            .getEvent());
-
-                    // Figure out which columns exist
-                    for (final var result : tracker.results) {
-                        final var event = new EventBuilder()
+        final var source = EventHandler.Source.builder()
+                .nodeId(node.getId().longValue())
+                .iface(iface.getIpAddress())
+                .build();
+
+        // Holding the permit until all rows are emitted bounds the number of walks emitting at the same time
+        return this.flowControl.admit()
+                .thenComposeAsync(permit -> withPermit(permit, () -> this.scheduler.submit(request.priority, () -> this.rateLimiter.acquire(node.getLocation(), agent, "resync." + config.getKind(), config.getRateLimit(), config.getRateBurst()), () -> {
+                            // The session is opened before the walk, so rows are emitted while the table is walked
+                            this.open(request, node, iface.getIpAddress(), source, parameters, timeout, timeline);
+
+                            final var timer = this.metrics.timer(MetricRegistry.name("snmp.walk", config.getKind(), node.getLocation())).time();
+
+                            timeline.mark(SessionTimeline.Stage.WALK_STARTED);
+
+                            return this.snmpClient.walk(agent, new AlarmTableTracker(config, timeline, source, this.emitter(node, iface.getIpAddress(), config, parameters)))
+                                    .withDescription("resync-get")
+                                    .withLocation(node.getLocation())
+                                    .execute()
+                                    .whenComplete((tracker, ex) -> timer.stop());
+                        })
+                        .thenCompose(tracker -> tracker.emitted())
+                        .thenRun(() -> this.eventForwarder.sendNowSync(new EventBuilder()
                                 .setTime(new Date())
                                 .setSource(EVENT_SOURCE)
-                                .setUei(UEI_RESYNC_ALARM)
+                                .setUei(UEI_RESYNC_FINISHED)
                                 .setNodeid(node.getId())
                                 .setInterface(iface.getIpAddress())
-                                .setService(config.getKind());
+                                .getEvent()))), this.executor);
+    }
 
-                        // Apply columns
-                        for (final var key : config.getColumns().keySet()) {
-                            event.addParam(key, result.get(key));
-                        }
+    private void open(final Request request,
+                      final Node node,
+                      final InetAddress iface,
+                      final EventHandler.Source source,
+                      final HashMap<String, Object> parameters,
+                      final Duration timeout,
+                      final SessionTimeline timeline) {
+        // TODO: This excepts on duplicate session? Should we wait?
+        this.eventHandler.createSession(source,
+                request.sessionId,
+                timeout,
+                node.getLabel(),
+                parameters,
+                timeline,
+                null);
 
-                        // Apply parameters
-                        parameters.forEach((k, v) -> event.addParam(k, v.toString()));
+        this.eventForwarder.sendNowSync(new EventBuilder()
+                .setTime(new Date())
+                .setSource(EVENT_SOURCE)
+                .setUei(UEI_RESYNC_STARTED)
+                .setNodeid(node.getId())
+                .setInterface(iface)
+                .getEvent());
+    }
+
+    private Consumer<Map<String, String>> emitter(final Node node,
+                                                  final InetAddress iface,
+                                                  final Configs.Entry config,
+                                                  final HashMap<String, Object> parameters) {
+        return result -> {
+            final var event = new EventBuilder()
+                    .setTime(new Date())
+                    .setSource(EVENT_SOURCE)
+                    .setUei(UEI_RESYNC_ALARM)
+                    .setNodeid(node.getId())
+                    .setInterface(iface)
+                    .setService(config.getKind());
+
+            // Apply columns
+            for (final var key : config.getColumns().keySet()) {
+                event.addParam(key, result.get(key));
+            }
 
-                        TriggerService.this.eventForwarder.sendNowSync(event.getEvent());
+            // Apply parameters
+            parameters.forEach((k, v) -> event.addParam(k, v.toString()));
+
+            this.eventForwarder.sendNowSync(event.getEvent());
+        };
+    }
+
+    /**
+     * Emits a row once the pipeline is not saturated without blocking the calling thread.
+     */
+    private CompletableFuture<Void> emitRow(final Map<String, String> row,
+                                            final EventHandler.Source source,
+                                            final Consumer<Map<String, String>> emitter) {
+        return this.flowControl.awaitEmission(() -> this.eventHandler.touch(source))
+                .thenRun(() -> {
+                    try {
+                        emitter.accept(row);
+                    } catch (final RuntimeException e) {
+                        // The event never reaches the event handler, so release the emission here
+                        this.flowControl.forwarded();
+                        throw e;
                     }
+                });
+    }
+
+    /**
+     * Releases the permit once the operation completes, even if starting the operation fails.
+     */
+    private static <T> CompletableFuture<T> withPermit(final FlowControl.Permit permit,
+                                                       final Supplier<CompletableFuture<T>> operation) {
+        final CompletableFuture<T> future;
+        try {
+            future = operation.get();
+        } catch (final RuntimeException e) {
+            permit.close();
+            throw e;
+        }
+
+        return future.whenComplete((ok, ex) -> permit.close());
+    }
 
-                    this.eventForwarder.sendNowSync(new EventBuilder()
-                            .setTime(new Date())
-                            .setSource(EVENT_SOURCE)
-                            .setUei(UEI_RESYNC_FINISHED)
-                            .setNodeid(node.getId())
-                            .setInterface(iface.getIpAddress())
-                            .getEvent());
+    /**
+     * Fetches the sequence ID of the last alarm to replay if the kind completes sessions by sequence.
+     *
+     * A failed fetch leaves the session to the other completion rules and the session timeout.
+     */
+    private CompletableFuture<Void> expectSequence(final EventHandler.Source source,
+                                                   final SnmpAgentConfig agent,
+                                                   final String location,
+                                                   final CompletionConfig completion) {
+        if (completion == null || completion.getSequenceOid() == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return this.snmpClient.get(agent, completion.getSequenceOid())
+                .withDescription("resync-sequence")
+                .withLocation(location)
+                .execute()
+                .thenAccept(values -> {
+                    final var value = values.isEmpty() ? null : values.get(0);
+                    if (value == null || value.isError() || !value.isNumeric()) {
+                        log.warn("resync session {}: no sequence ID at {}", source, completion.getSequenceOid());
+                        return;
+                    }
+
+                    this.eventHandler.expectSequence(source, value.toLong());
+                })
+                .exceptionally(ex -> {
+                    log.warn("resync session {}: failed to fetch sequence ID", source, ex);
+                    return null;
                 });
     }
 
@@ -299,20 +446,45 @@ public class TriggerService {
     }
 
     private class AlarmTableTracker extends TableTracker {
-        public List<Map<String, String>> results = new ArrayList<>();
-
         private final Configs.Entry config;
 
-        public AlarmTableTracker(final Configs.Entry config) {
+        private final SessionTimeline timeline;
+
+        private final EventHandler.Source source;
+
+        private final Consumer<Map<String, String>> emitter;
+
+        // Rows are emitted in order as they complete, so only rows waiting for a saturated pipeline are held
+        private CompletableFuture<Void> emitted = CompletableFuture.completedFuture(null);
+
+        public AlarmTableTracker(final Configs.Entry config,
+                                 final SessionTimeline timeline,
+                                 final EventHandler.Source source,
+                                 final Consumer<Map<String, String>> emitter) {
             super(config.getColumns().values().toArray(SnmpObjId[]::new));
 
             this.config = config;
+            this.timeline = timeline;
+            this.source = source;
+            this.emitter = emitter;
+        }
+
+        /**
+         * @return a future completing once all completed rows have been emitted
+         */
+        public synchronized CompletableFuture<Void> emitted() {
+            return this.emitted;
         }
 
         @Override
         public void rowCompleted(final SnmpRowResult row) {
             super.rowCompleted(row);
 
+            TriggerService.this.metrics.meter("snmp.rows").mark();
+
+            this.timeline.mark(SessionTimeline.Stage.FIRST_ROW);
+            this.timeline.update(SessionTimeline.Stage.LAST_ROW);
+
             final var result = this.config.getColumns()
                     .entrySet().stream()
                     .map(e -> {
@@ -326,7 +498,9 @@ public class TriggerService {
                     .filter(Objects::nonNull)
                     .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
 
-            this.results.add(result);
+            synchronized (this) {
+                this.emitted = this.emitted.thenCompose(ignored -> TriggerService.this.emitRow(result, this.source, this.emitter));
+            }
         }
     }
 
@@ -355,5 +529,9 @@ public class TriggerService {
         default Duration millis(final long millis) {
             return Duration.ofMillis(millis);
         }
+
+        default PriorityScheduler.Lane lane(final String priority) {
+            return PriorityScheduler.Lane.parse(priority);
+        }
     }
 }
@@ -26,12 +26,16 @@ import lombok.Builder;
 import lombok.NonNull;
 import lombok.Value;
 import lombok.extern.jackson.Jacksonized;
+import org.opennms.resync.flow.PriorityScheduler;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.HashMap;
@@ -44,11 +48,31 @@ public interface WebhookHandler {
     @Path("/ping")
     Response ping();
 
+    @GET
+    @Path("/metrics")
+    @Produces({MediaType.APPLICATION_JSON})
+    Response metrics();
+
+    @GET
+    @Path("/sessions")
+    @Produces({MediaType.APPLICATION_JSON})
+    Response sessions();
+
+    @GET
+    @Path("/sessions/{id}")
+    @Produces({MediaType.APPLICATION_JSON})
+    Response session(@PathParam("id") String id);
+
+    @GET
+    @Path("/schedules")
+    @Produces({MediaType.APPLICATION_JSON})
+    Response schedules();
+
     @POST
     @Path("/trigger")
     @Produces({MediaType.APPLICATION_JSON})
     @Consumes({MediaType.APPLICATION_JSON})
-    Response trigger(TriggerRequest request) throws Exception;
+    void trigger(TriggerRequest request, @Suspended AsyncResponse response);
 
     @Value
     @Builder
@@ -75,5 +99,8 @@ public interface WebhookHandler {
 
         Long timeout;
 
+        @Builder.Default
+        PriorityScheduler.Lane priority = PriorityScheduler.Lane.TARGETED;
+
     }
 }
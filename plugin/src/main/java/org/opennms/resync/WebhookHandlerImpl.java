@@ -28,11 +28,17 @@ import lombok.extern.slf4j.Slf4j;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
 import org.mapstruct.factory.Mappers;
+import org.opennms.resync.flow.FlowControl;
 
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
-import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -41,22 +47,107 @@ public class WebhookHandlerImpl implements WebhookHandler {
     @NonNull
     private final TriggerService triggerService;
 
+    @NonNull
+    private final MetricsReporter metricsReporter;
+
+    @NonNull
+    private final EventHandler eventHandler;
+
+    @NonNull
+    private final FlowControl flowControl;
+
+    @NonNull
+    private final ResyncScheduler resyncScheduler;
+
+    private Duration requestTimeout = Duration.ofSeconds(60);
+
+    private long retryAfter = 5;
+
+    public void setRequestTimeout(final long requestTimeout) {
+        this.requestTimeout = Duration.ofMillis(requestTimeout);
+    }
+
+    public void setRetryAfter(final long retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
     @Override
     public Response ping() {
         return Response.ok("pong").build();
     }
 
     @Override
-    public Response trigger(final TriggerRequest request) throws IOException, ExecutionException, InterruptedException {
+    public Response metrics() {
+        return Response.ok(this.metricsReporter.report()).build();
+    }
+
+    @Override
+    public Response sessions() {
+        return Response.ok(this.eventHandler.getSessions()).build();
+    }
+
+    @Override
+    public Response session(final String id) {
+        return this.eventHandler.getSession(id)
+                .map(status -> Response.ok(status).build())
+                .orElseGet(() -> Response.status(Response.Status.NOT_FOUND).build());
+    }
+
+    @Override
+    public Response schedules() {
+        return Response.ok(this.resyncScheduler.getStatus()).build();
+    }
+
+    @Override
+    public void trigger(final TriggerRequest request, final AsyncResponse response) {
         log.debug("trigger: {}", request);
 
-        final Future<Void> result = this.triggerService.trigger(TriggerRequestMapper.INSTANCE.toRequest(request));
+        if (!this.flowControl.isAdmissible()) {
+            response.resume(unavailable());
+            return;
+        }
 
-        if (request.isSync()) {
-            result.get();
+        final CompletableFuture<Void> result;
+        try {
+            result = this.triggerService.trigger(TriggerRequestMapper.INSTANCE.toRequest(request));
+        } catch (final RejectedExecutionException e) {
+            response.resume(unavailable());
+            return;
+        } catch (final Exception e) {
+            response.resume(e);
+            return;
         }
 
-        return Response.ok().build();
+        if (!request.isSync()) {
+            response.resume(Response.ok().build());
+            return;
+        }
+
+        response.setTimeout(this.requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        response.setTimeoutHandler(r -> r.resume(Response.status(Response.Status.GATEWAY_TIMEOUT).build()));
+
+        result.whenComplete((ok, ex) -> {
+            if (ex == null) {
+                response.resume(Response.ok().build());
+            } else if (unwrap(ex) instanceof RejectedExecutionException) {
+                response.resume(unavailable());
+            } else {
+                response.resume(unwrap(ex));
+            }
+        });
+    }
+
+    private Response unavailable() {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, this.retryAfter)
+                .build();
+    }
+
+    static Throwable unwrap(final Throwable ex) {
+        if ((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null) {
+            return ex.getCause();
+        }
+        return ex;
     }
 
     @Mapper(uses = TriggerService.TriggerMapper.class)
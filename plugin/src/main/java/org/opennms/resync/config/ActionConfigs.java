@@ -77,6 +77,8 @@ public class ActionConfigs {
                 .actionType(actionType)
                 .columns(columns)
                 .parameters(actionConfig.getParameters())
+                .rateLimit(kindConfig.getRateLimit())
+                .rateBurst(kindConfig.getRateBurst())
                 .build();
     }
 
@@ -95,5 +97,9 @@ public class ActionConfigs {
         @NonNull
         @Builder.Default
         Map<String, Object> parameters = new LinkedHashMap<>();
+
+        Double rateLimit;
+
+        Double rateBurst;
     }
 }
\ No newline at end of file
@@ -32,4 +32,11 @@ import java.util.List;
 public class ActionKindConfig {
     @JsonProperty("actions")
     private List<ActionConfig> actions = new ArrayList<>();
+
+    // SNMP operations per second and burst allowed against agents of this kind
+    @JsonProperty("rateLimit")
+    private Double rateLimit;
+
+    @JsonProperty("rateBurst")
+    private Double rateBurst;
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.config;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
+import org.opennms.netmgt.snmp.SnmpObjId;
+
+/**
+ * Rules to detect the end of a SET resync before the session timeout expires.
+ *
+ * A session is complete as soon as any of the configured rules is satisfied.
+ */
+@Value
+@Builder
+@Jacksonized
+public class CompletionConfig {
+
+    // UEI of the trap sent by the agent after the last replayed alarm
+    String endUei;
+
+    // UEI of the trap sent by the agent before the first replayed alarm announcing the number of alarms
+    String startUei;
+
+    // Parameter of the start trap holding the number of alarms
+    String countParameter;
+
+    // Object fetched before the SET holding the sequence ID of the last alarm to replay
+    SnmpObjId sequenceOid;
+}
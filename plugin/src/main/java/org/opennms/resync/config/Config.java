@@ -43,4 +43,8 @@ public class Config {
     @NonNull
     @Builder.Default
     Map<String, KindConfig> kinds = new LinkedHashMap<>();
+
+    @NonNull
+    @Builder.Default
+    Map<String, ScheduleConfig> schedules = new LinkedHashMap<>();
 }
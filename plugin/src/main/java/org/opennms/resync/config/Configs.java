@@ -33,6 +33,7 @@ import org.opennms.netmgt.snmp.SnmpObjId;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.time.Duration;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -42,13 +43,41 @@ public class Configs {
 
     private final static ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
-    public Entry getConfig(final String node, String kind) throws IOException {
+    // Last parsed config and the modification time of the file it has been parsed from
+    private volatile Loaded loaded;
+
+    /**
+     * Returns the current config.
+     *
+     * The parsed config is cached and only parsed again once the modification time of the file changes.
+     */
+    public Config load() throws IOException {
         final var path = Paths.get(System.getProperty("opennms.home"), "etc", "resync.json");
 
-        final Config config;
+        final var modified = Files.getLastModifiedTime(path);
+
+        final var loaded = this.loaded;
+        if (loaded != null && loaded.modified.equals(modified)) {
+            return loaded.config;
+        }
+
         try (final var reader = Files.newBufferedReader(path)) {
-            config = OBJECT_MAPPER.readValue(reader, new TypeReference<>() {});
+            final Config config = OBJECT_MAPPER.readValue(reader, new TypeReference<>() {});
+            this.loaded = new Loaded(modified, config);
+            return config;
         }
+    }
+
+    /**
+     * Drops the cached config and parses the file again.
+     */
+    public Config reload() throws IOException {
+        this.loaded = null;
+        return this.load();
+    }
+
+    public Entry getConfig(final String node, String kind) throws IOException {
+        final var config = this.load();
 
         if (kind == null) {
             final NodeConfig nodeConfig = config.getNodes().get(node);
@@ -72,9 +101,18 @@ public class Configs {
                 .timeout(kindConfig.getTimeout() != null
                         ? Duration.ofMillis(kindConfig.getTimeout())
                         : null)
+                .rateLimit(kindConfig.getRateLimit())
+                .rateBurst(kindConfig.getRateBurst())
+                .completion(kindConfig.getCompletion())
                 .build();
     }
 
+    @Value
+    private static class Loaded {
+        FileTime modified;
+        Config config;
+    }
+
     @Value
     @Builder
     public static class Entry {
@@ -92,5 +130,11 @@ public class Configs {
         Map<String, Object> parameters = new LinkedHashMap<>();
 
         Duration timeout;
+
+        Double rateLimit;
+
+        Double rateBurst;
+
+        CompletionConfig completion;
     }
 }
@@ -45,6 +45,21 @@ public class KindConfig {
 
     Long timeout;
 
+    // SNMP operations per second and burst allowed against agents of this kind
+    Double rateLimit;
+
+    Double rateBurst;
+
+    // Resync nodes of this kind automatically when they recover
+    @Builder.Default
+    boolean resyncOnRecovery = false;
+
+    // Parameter receiving the first missing sequence ID on incremental resyncs after trap loss
+    String sequenceParameter;
+
+    // Detects the end of SET resyncs without waiting for the session timeout
+    CompletionConfig completion;
+
     @NonNull
     @Builder.Default
     Map<String, SnmpObjId> columns = new LinkedHashMap<>();
@@ -0,0 +1,59 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.config;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Value
+@Builder
+@Jacksonized
+public class ScheduleConfig {
+
+    @NonNull
+    String kind;
+
+    // The period in milliseconds in which each node is resynced once
+    @NonNull
+    Long interval;
+
+    // Labels of the nodes to resync - all nodes of the kind if empty
+    @NonNull
+    @Builder.Default
+    List<String> nodes = new ArrayList<>();
+
+    Integer maxConcurrentPerLocation;
+
+    Long timeout;
+
+    @NonNull
+    @Builder.Default
+    Map<String, Object> parameters = new LinkedHashMap<>();
+}
@@ -30,6 +30,12 @@ public class Events {
     public static final String UEI_RESYNC_TIMEOUT = "uei.opennms.org/resync/timeout";
     public static final String UEI_RESYNC_ALARM = "uei.opennms.org/resync/alarm";
 
+    // Events signalling a recovered node or a restarted agent
+    public static final String UEI_NODE_UP = "uei.opennms.org/nodes/nodeUp";
+    public static final String UEI_INTERFACE_UP = "uei.opennms.org/nodes/interfaceUp";
+    public static final String UEI_COLD_START = "uei.opennms.org/generic/traps/SNMP_Cold_Start";
+    public static final String UEI_WARM_START = "uei.opennms.org/generic/traps/SNMP_Warm_Start";
+
     // Action-related events
     public static final String UEI_ACTION_RESPONSE = "uei.opennms.org/plugin/action/response";
 }
@@ -49,6 +49,8 @@ public class MIB {
     public static final SnmpObjId OID_NIB_CLEAR_USER = SnmpObjId.get(".1.3.6.1.4.1.28458.1.26.3.1.1.9");
     public static final SnmpObjId OID_NIB_OPTIONAL_INFORMATION = SnmpObjId.get(".1.3.6.1.4.1.28458.1.26.3.1.1.19");
 
+    public static final SnmpObjId OID_SNMP_TRAP_ADDRESS = SnmpObjId.get(".1.3.6.1.6.3.18.1.3.0");
+
     public final static SnmpObjId OID_CURRENT_ALARM_TABLE = SnmpObjId.get(".1.3.6.1.4.1.3902.4101.1.3");
     public final static SnmpObjId OID_CURRENT_ALARM_TABLE_ALARM_ID = SnmpObjId.get(OID_CURRENT_ALARM_TABLE, "1");
     public final static SnmpObjId OID_CURRENT_ALARM_TABLE_EVENT_TIME = SnmpObjId.get(OID_CURRENT_ALARM_TABLE, "3");
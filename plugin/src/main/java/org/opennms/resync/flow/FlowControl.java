@@ -0,0 +1,320 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.flow;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.opennms.resync.AlarmForwarder;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Propagates pressure from Kafka back to the walks and the emission of resync events.
+ *
+ * The pipeline is considered saturated if the producer buffer fills up or too many emitted events have not been
+ * forwarded yet. New walks are not admitted and row emission is paused while the pipeline is saturated.
+ *
+ * Callers are never blocked: admission and emission return futures which are completed on a worker thread as soon as
+ * capacity frees up, so the continuations of waiting callers never run on the polling thread.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class FlowControl {
+
+    private static final long POLL_INTERVAL = 50;
+
+    @NonNull
+    private final AlarmForwarder alarmForwarder;
+
+    @NonNull
+    private final MetricRegistry metrics;
+
+    private int maxConcurrentWalks = 16;
+
+    private long maxOutstandingEvents = 5000;
+
+    private double bufferHighWatermark = 0.8;
+
+    private Duration maxWait = Duration.ofSeconds(30);
+
+    private final AtomicLong outstanding = new AtomicLong();
+
+    private int walks = 0;
+
+    // Waiting walks and emissions in order of arrival
+    private final Deque<Waiter<Permit>> admissions = new ArrayDeque<>();
+    private final Deque<Waiter<Void>> emissions = new ArrayDeque<>();
+
+    private ScheduledExecutorService executor;
+
+    private ExecutorService workers;
+
+    public void setMaxConcurrentWalks(final int maxConcurrentWalks) {
+        this.maxConcurrentWalks = maxConcurrentWalks;
+    }
+
+    public void setMaxOutstandingEvents(final long maxOutstandingEvents) {
+        this.maxOutstandingEvents = maxOutstandingEvents;
+    }
+
+    public void setBufferHighWatermark(final double bufferHighWatermark) {
+        this.bufferHighWatermark = bufferHighWatermark;
+    }
+
+    public void setMaxWait(final long maxWait) {
+        this.maxWait = Duration.ofMillis(maxWait);
+    }
+
+    public void start() {
+        this.metrics.register("flow.outstanding", (Gauge<Long>) this.outstanding::get);
+        this.metrics.register("flow.walks", (Gauge<Integer>) this::walks);
+        this.metrics.register("flow.saturated", (Gauge<Boolean>) this::isSaturated);
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "resync-flow-control"));
+        this.executor.scheduleWithFixedDelay(this::poll, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+
+        this.workers = Executors.newCachedThreadPool(runnable -> new Thread(runnable, "resync-flow-control-worker"));
+    }
+
+    public void stop() {
+        this.metrics.removeMatching((name, metric) -> name.startsWith("flow."));
+
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+
+        if (this.workers != null) {
+            this.workers.shutdown();
+        }
+
+        final List<Waiter<?>> waiters;
+        synchronized (this) {
+            waiters = new ArrayList<>(this.admissions);
+            waiters.addAll(this.emissions);
+            this.admissions.clear();
+            this.emissions.clear();
+        }
+
+        for (final var waiter : waiters) {
+            waiter.future.completeExceptionally(new RejectedExecutionException("Flow control stopped"));
+        }
+    }
+
+    public boolean isSaturated() {
+        return this.outstanding.get() >= this.maxOutstandingEvents
+                || this.alarmForwarder.getBufferUtilization() >= this.bufferHighWatermark;
+    }
+
+    /**
+     * @return whether a walk would be admitted right now without waiting
+     */
+    public synchronized boolean isAdmissible() {
+        return this.admissions.isEmpty() && this.walks < this.maxConcurrentWalks && !this.isSaturated();
+    }
+
+    /**
+     * Waits for a free walk slot and an unsaturated pipeline.
+     *
+     * @return a future completing with the permit to release after the walk results have been emitted, or failing
+     *         with a {@link RejectedExecutionException} if no capacity frees up within the maximum wait time
+     */
+    public CompletableFuture<Permit> admit() {
+        synchronized (this) {
+            if (this.isAdmissible()) {
+                this.walks++;
+                return CompletableFuture.completedFuture(new Permit());
+            }
+
+            final var waiter = new Waiter<Permit>(null);
+            this.admissions.addLast(waiter);
+            return waiter.future;
+        }
+    }
+
+    /**
+     * Waits for an unsaturated pipeline before the next event is emitted.
+     *
+     * Gives up waiting after the maximum wait time to avoid stalling the emitting session forever.
+     *
+     * @param keepAlive called periodically while waiting
+     */
+    public CompletableFuture<Void> awaitEmission(final Runnable keepAlive) {
+        synchronized (this) {
+            if (this.emissions.isEmpty() && !this.isSaturated()) {
+                this.outstanding.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            }
+
+            final var waiter = new Waiter<Void>(keepAlive);
+            this.emissions.addLast(waiter);
+            return waiter.future;
+        }
+    }
+
+    public void forwarded() {
+        this.outstanding.updateAndGet(value -> Math.max(0, value - 1));
+    }
+
+    private void release() {
+        synchronized (this) {
+            this.walks--;
+        }
+
+        this.poll();
+    }
+
+    /**
+     * Hands free capacity to the waiting callers and fails or releases callers which have waited too long.
+     */
+    private void poll() {
+        final var admitted = new ArrayList<Waiter<Permit>>();
+        final var rejected = new ArrayList<Waiter<Permit>>();
+        final var emitted = new ArrayList<Waiter<Void>>();
+        final var alive = new ArrayList<Runnable>();
+
+        synchronized (this) {
+            final var now = System.nanoTime();
+            final var saturated = this.isSaturated();
+
+            while (!this.admissions.isEmpty() && this.walks < this.maxConcurrentWalks && !saturated) {
+                admitted.add(this.admissions.pollFirst());
+                this.walks++;
+            }
+
+            for (final var it = this.admissions.iterator(); it.hasNext(); ) {
+                final var waiter = it.next();
+                if (waiter.expired(now)) {
+                    rejected.add(waiter);
+                    it.remove();
+                }
+            }
+
+            for (final var it = this.emissions.iterator(); it.hasNext(); ) {
+                final var waiter = it.next();
+                if (!saturated || waiter.expired(now)) {
+                    if (saturated) {
+                        log.warn("Resync pipeline still saturated after {} - continuing emission", this.maxWait);
+                    }
+
+                    emitted.add(waiter);
+                    it.remove();
+                    this.outstanding.incrementAndGet();
+                } else {
+                    alive.add(waiter.keepAlive);
+                }
+            }
+        }
+
+        for (final var waiter : admitted) {
+            final var permit = new Permit();
+            this.resume(() -> {
+                if (!waiter.future.complete(permit)) {
+                    permit.close();
+                }
+            });
+        }
+
+        for (final var waiter : rejected) {
+            waiter.future.completeExceptionally(new RejectedExecutionException(this.isSaturated()
+                    ? "Resync pipeline saturated"
+                    : "Too many concurrent walks"));
+        }
+
+        for (final var waiter : emitted) {
+            this.resume(() -> waiter.future.complete(null));
+        }
+
+        for (final var keepAlive : alive) {
+            try {
+                keepAlive.run();
+            } catch (final RuntimeException e) {
+                log.warn("Failed to keep waiting session alive", e);
+            }
+        }
+    }
+
+    private void resume(final Runnable completion) {
+        if (this.workers == null) {
+            completion.run();
+            return;
+        }
+
+        try {
+            this.workers.execute(completion);
+        } catch (final RejectedExecutionException e) {
+            // Stopping - complete the caller right away
+            completion.run();
+        }
+    }
+
+    private synchronized int walks() {
+        return this.walks;
+    }
+
+    private class Waiter<T> {
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final Runnable keepAlive;
+        private final long deadline = System.nanoTime() + FlowControl.this.maxWait.toNanos();
+
+        private Waiter(final Runnable keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        private boolean expired(final long now) {
+            return now - this.deadline > 0;
+        }
+    }
+
+    public class Permit implements AutoCloseable {
+        private boolean released = false;
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (this.released) {
+                    return;
+                }
+                this.released = true;
+            }
+
+            FlowControl.this.release();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.flow;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Orders SNMP operations by priority lane while limiting the number of concurrently running operations.
+ *
+ * Free slots are handed to the highest priority lane with queued operations. To avoid starving lower lanes, an
+ * operation which has been queued for longer than the maximum starvation time is served before any fresh operation
+ * of a higher lane.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class PriorityScheduler {
+
+    public enum Lane {
+        INTERACTIVE,
+        TARGETED,
+        BULK;
+
+        public String label() {
+            return this.name().toLowerCase();
+        }
+
+        /**
+         * Parses the lane name ignoring its case.
+         *
+         * @throws IllegalArgumentException naming the valid lanes if the name is unknown
+         */
+        @JsonCreator
+        public static Lane parse(final String name) {
+            for (final var lane : values()) {
+                if (lane.name().equalsIgnoreCase(name != null ? name.trim() : null)) {
+                    return lane;
+                }
+            }
+
+            throw new IllegalArgumentException("Unknown priority: " + name + ". Must be one of: " + Arrays.stream(values())
+                    .map(Lane::label)
+                    .collect(Collectors.joining(", ")));
+        }
+    }
+
+    @NonNull
+    private final MetricRegistry metrics;
+
+    private int maxConcurrent = 16;
+
+    private Duration maxStarvation = Duration.ofSeconds(10);
+
+    private final Map<Lane, ArrayDeque<Task<?>>> queues = new EnumMap<>(Lane.class);
+
+    private int running = 0;
+
+    private final ThreadLocal<Boolean> dispatching = ThreadLocal.withInitial(() -> false);
+
+    {
+        for (final var lane : Lane.values()) {
+            this.queues.put(lane, new ArrayDeque<>());
+        }
+    }
+
+    public void setMaxConcurrent(final int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public void setMaxStarvation(final long maxStarvation) {
+        this.maxStarvation = Duration.ofMillis(maxStarvation);
+    }
+
+    public void start() {
+        for (final var lane : Lane.values()) {
+            this.metrics.register(MetricRegistry.name("scheduler", lane.label(), "queued"), (Gauge<Integer>) () -> this.queued(lane));
+        }
+        this.metrics.register("scheduler.running", (Gauge<Integer>) this::running);
+    }
+
+    public void stop() {
+        this.metrics.removeMatching((name, metric) -> name.startsWith("scheduler."));
+
+        synchronized (this) {
+            for (final var queue : this.queues.values()) {
+                for (final var task : queue) {
+                    task.result.completeExceptionally(new RejectedExecutionException("Scheduler stopped"));
+                }
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * Queues an operation in the given lane.
+     *
+     * @param operation starts the operation once a slot is available - the slot is held until the returned future
+     *                  completes
+     * @return a future completing with the result of the operation
+     */
+    public <T> CompletableFuture<T> submit(final Lane lane, final Supplier<CompletableFuture<T>> operation) {
+        final var task = new Task<>(lane, operation);
+
+        synchronized (this) {
+            this.queues.get(lane).add(task);
+        }
+
+        this.dispatch();
+
+        return task.result;
+    }
+
+    /**
+     * Queues a rate limited operation in the given lane.
+     *
+     * The limit is acquired once the operation is dispatched. If the limit delays the operation, its slot is released
+     * for the delay and the operation is queued again once the delay has expired, so waiting operations never hold a
+     * slot.
+     *
+     * @param limit reserves the tokens of the operation and completes once the operation may be started
+     * @param operation starts the operation - the slot is held until the returned future completes
+     * @return a future completing with the result of the operation
+     */
+    public <T> CompletableFuture<T> submit(final Lane lane,
+                                           final Supplier<CompletableFuture<Void>> limit,
+                                           final Supplier<CompletableFuture<T>> operation) {
+        return this.submit(lane, () -> {
+                    final var permitted = limit.get();
+                    if (permitted.isDone()) {
+                        return permitted.thenCompose(ignored -> operation.get())
+                                .thenApply(CompletableFuture::completedFuture);
+                    }
+
+                    this.metrics.meter(MetricRegistry.name("scheduler", lane.label(), "requeued")).mark();
+                    return CompletableFuture.completedFuture(permitted.thenCompose(ignored -> this.submit(lane, operation)));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private void dispatch() {
+        // Operations completing immediately release their slot from within the loop - let the loop pick up the next
+        if (this.dispatching.get()) {
+            return;
+        }
+
+        this.dispatching.set(true);
+        try {
+            while (true) {
+                final Task<?> task;
+                synchronized (this) {
+                    if (this.running >= this.maxConcurrent) {
+                        return;
+                    }
+
+                    task = this.next();
+                    if (task == null) {
+                        return;
+                    }
+
+                    this.running++;
+                }
+
+                task.run();
+            }
+        } finally {
+            this.dispatching.set(false);
+        }
+    }
+
+    private Task<?> next() {
+        final var deadline = System.nanoTime() - this.maxStarvation.toNanos();
+
+        // Serve starving operations first - still in order of their lanes
+        for (final var lane : Lane.values()) {
+            final var head = this.queues.get(lane).peek();
+            if (head != null && head.queued - deadline < 0) {
+                if (lane != Lane.INTERACTIVE) {
+                    this.metrics.meter(MetricRegistry.name("scheduler", lane.label(), "starved")).mark();
+                }
+                return this.queues.get(lane).poll();
+            }
+        }
+
+        for (final var lane : Lane.values()) {
+            final var task = this.queues.get(lane).poll();
+            if (task != null) {
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    private void release() {
+        synchronized (this) {
+            this.running--;
+        }
+
+        this.dispatch();
+    }
+
+    private synchronized int queued(final Lane lane) {
+        return this.queues.get(lane).size();
+    }
+
+    private synchronized int running() {
+        return this.running;
+    }
+
+    private class Task<T> {
+        private final Lane lane;
+        private final Supplier<CompletableFuture<T>> operation;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final long queued = System.nanoTime();
+
+        private Task(final Lane lane, final Supplier<CompletableFuture<T>> operation) {
+            this.lane = lane;
+            this.operation = operation;
+        }
+
+        private void run() {
+            PriorityScheduler.this.metrics.timer(MetricRegistry.name("scheduler", this.lane.label(), "wait"))
+                    .update(System.nanoTime() - this.queued, TimeUnit.NANOSECONDS);
+
+            final CompletableFuture<T> future;
+            try {
+                future = this.operation.get();
+            } catch (final RuntimeException e) {
+                PriorityScheduler.this.release();
+                this.result.completeExceptionally(e);
+                return;
+            }
+
+            future.whenComplete((value, ex) -> {
+                PriorityScheduler.this.release();
+
+                if (ex != null) {
+                    this.result.completeExceptionally(ex);
+                } else {
+                    this.result.complete(value);
+                }
+            });
+        }
+    }
+}
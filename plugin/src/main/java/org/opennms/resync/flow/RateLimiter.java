@@ -0,0 +1,210 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.flow;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of SNMP operations per agent and per kind.
+ *
+ * Operations over the limit are delayed until tokens are available. Operations which would have to wait longer than
+ * the maximum wait time are rejected.
+ *
+ * Tokens are meant to be acquired once an operation has been dispatched by the {@link PriorityScheduler}, right before
+ * it is sent. Operations taking their tokens before being queued would be released in a burst when slots free up.
+ * Delayed operations give their slot back and are queued again once the delay has expired, see
+ * {@link PriorityScheduler#submit(PriorityScheduler.Lane, java.util.function.Supplier, java.util.function.Supplier)}.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class RateLimiter {
+
+    @NonNull
+    private final MetricRegistry metrics;
+
+    private double agentRateLimit = 0.0;
+
+    private double agentRateBurst = 0.0;
+
+    private Duration maxWait = Duration.ofSeconds(30);
+
+    private final Map<String, Limit> agents = new ConcurrentHashMap<>();
+
+    private final Map<String, Limit> kinds = new ConcurrentHashMap<>();
+
+    public void setAgentRateLimit(final double agentRateLimit) {
+        this.agentRateLimit = agentRateLimit;
+        this.agents.clear();
+    }
+
+    public void setAgentRateBurst(final double agentRateBurst) {
+        this.agentRateBurst = agentRateBurst;
+        this.agents.clear();
+    }
+
+    public void setMaxWait(final long maxWait) {
+        this.maxWait = Duration.ofMillis(maxWait);
+    }
+
+    /**
+     * Reserves a single operation against the agent and the kind.
+     *
+     * @param kind the name of the kind limit
+     * @param kindRateLimit operations per second allowed for the kind, or {@code null} for no limit
+     * @param kindRateBurst operations allowed in a burst for the kind, or {@code null} to use the rate
+     * @return a future completing when the operation may be executed, or failing with a
+     *         {@link RejectedExecutionException} if the wait would exceed the maximum wait time
+     */
+    public CompletableFuture<Void> acquire(final String location,
+                                           final SnmpAgentConfig agent,
+                                           final String kind,
+                                           final Double kindRateLimit,
+                                           final Double kindRateBurst) {
+        return this.acquire(location, agent, List.of(new Kind(kind, kindRateLimit, kindRateBurst)));
+    }
+
+    /**
+     * Reserves a single operation against the agent and each of the kinds.
+     *
+     * Either all reservations are made or none: if any limit would exceed the maximum wait time, the tokens already
+     * reserved for the operation are returned.
+     *
+     * @return a future completing when the operation may be executed, or failing with a
+     *         {@link RejectedExecutionException} if the wait would exceed the maximum wait time
+     */
+    public CompletableFuture<Void> acquire(final String location,
+                                           final SnmpAgentConfig agent,
+                                           final Collection<Kind> kinds) {
+        final var reserved = new ArrayList<TokenBucket>(kinds.size() + 1);
+
+        // All limits are waited for at the same time
+        var wait = 0L;
+
+        for (final var kind : kinds) {
+            if (kind.rateLimit == null || kind.rateLimit <= 0.0) {
+                continue;
+            }
+
+            final var limit = this.kinds.compute(kind.name, (key, existing) -> existing != null && existing.matches(kind.rateLimit, kind.rateBurst)
+                    ? existing
+                    : new Limit(kind.rateLimit, kind.rateBurst));
+
+            final var kindWait = limit.bucket.tryReserve(1, this.maxWait.toNanos());
+            if (kindWait < 0) {
+                refund(reserved);
+                return this.rejected(kind.name, "kind " + kind.name);
+            }
+
+            reserved.add(limit.bucket);
+            wait = Math.max(wait, kindWait);
+        }
+
+        if (this.agentRateLimit > 0.0) {
+            final var address = location + "/" + InetAddressUtils.str(agent.getAddress()) + ":" + agent.getPort();
+            final var limit = this.agents.computeIfAbsent(address, key -> new Limit(this.agentRateLimit, this.agentRateBurst));
+
+            final var agentWait = limit.bucket.tryReserve(1, this.maxWait.toNanos());
+            if (agentWait < 0) {
+                refund(reserved);
+                return this.rejected(name(kinds), "agent " + address);
+            }
+
+            wait = Math.max(wait, agentWait);
+        }
+
+        if (wait == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        for (final var kind : kinds) {
+            this.metrics.meter(MetricRegistry.name("ratelimit.throttled", kind.name)).mark();
+        }
+        this.metrics.histogram("ratelimit.wait").update(TimeUnit.NANOSECONDS.toMillis(wait));
+
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS));
+    }
+
+    private static void refund(final List<TokenBucket> reserved) {
+        for (final var bucket : reserved) {
+            bucket.refund(1);
+        }
+    }
+
+    private static String name(final Collection<Kind> kinds) {
+        return kinds.stream()
+                .map(Kind::getName)
+                .findFirst()
+                .orElse("unknown");
+    }
+
+    private CompletableFuture<Void> rejected(final String kind, final String target) {
+        log.warn("Rate limit of {} exceeded for longer than {}", target, this.maxWait);
+        this.metrics.meter(MetricRegistry.name("ratelimit.rejected", kind)).mark();
+        return CompletableFuture.failedFuture(new RejectedExecutionException("Rate limit exceeded for " + target));
+    }
+
+    @Value
+    public static class Kind {
+        @NonNull
+        String name;
+
+        // Operations per second allowed for the kind, or null for no limit
+        Double rateLimit;
+
+        // Operations allowed in a burst for the kind, or null to use the rate
+        Double rateBurst;
+    }
+
+    private static class Limit {
+        private final double rate;
+        private final Double burst;
+        private final TokenBucket bucket;
+
+        private Limit(final double rate, final Double burst) {
+            this.rate = rate;
+            this.burst = burst;
+            this.bucket = new TokenBucket(rate, burst != null && burst > 0.0 ? burst : rate);
+        }
+
+        private boolean matches(final double rate, final Double burst) {
+            return this.rate == rate && Objects.equals(this.burst, burst);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.flow;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket refilled continuously at a fixed rate up to its burst capacity.
+ *
+ * Reservations may overdraw the bucket, so requests larger than the capacity are delayed instead of rejected. The
+ * caller is responsible for waiting the returned time before proceeding.
+ */
+public class TokenBucket {
+    private final double ratePerNano;
+    private final double capacity;
+
+    private double tokens;
+    private long last;
+
+    public TokenBucket(final double ratePerSecond, final double capacity) {
+        if (ratePerSecond <= 0.0) {
+            throw new IllegalArgumentException("Rate must be positive: " + ratePerSecond);
+        }
+
+        this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(capacity, 1.0);
+
+        this.tokens = this.capacity;
+        this.last = System.nanoTime();
+    }
+
+    /**
+     * Reserves the given amount of tokens.
+     *
+     * @return the time in nanoseconds to wait before the reservation is valid, or {@code -1} if the wait would exceed
+     *         {@code maxWaitNanos} in which case nothing is reserved
+     */
+    public synchronized long tryReserve(final long permits, final long maxWaitNanos) {
+        this.refill();
+
+        final var remaining = this.tokens - permits;
+        final var wait = remaining >= 0.0
+                ? 0L
+                : (long) Math.ceil(-remaining / this.ratePerNano);
+
+        if (wait > maxWaitNanos) {
+            return -1L;
+        }
+
+        this.tokens = remaining;
+        return wait;
+    }
+
+    /**
+     * Returns tokens of a reservation which will not be used.
+     */
+    public synchronized void refund(final long permits) {
+        this.refill();
+        this.tokens = Math.min(this.capacity, this.tokens + permits);
+    }
+
+    public long reserve(final long permits) {
+        return this.tryReserve(permits, Long.MAX_VALUE);
+    }
+
+    public void acquire(final long permits) throws InterruptedException {
+        final var wait = this.reserve(permits);
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    public synchronized double available() {
+        this.refill();
+        return this.tokens;
+    }
+
+    private void refill() {
+        final var now = System.nanoTime();
+        this.tokens = Math.min(this.capacity, this.tokens + (now - this.last) * this.ratePerNano);
+        this.last = now;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.shell;
+
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+import org.opennms.resync.constants.MIB;
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.MessageException;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An SNMP agent on localhost serving a synthetic alarm table to benchmark resync walks and SETs without a device.
+ *
+ * The rows are computed on request, so tables of millions of rows take no memory. The first column holds the row
+ * index and all further columns a string derived from row and column. Requests can be delayed and dropped at random.
+ *
+ * Any SET is acknowledged and, if a trap target is given, replays the table as SNMPv2 traps carrying an increasing
+ * NBI sequence ID, optionally followed by an end trap. A GET of the sequence ID returns the ID the next replay ends at.
+ */
+@Slf4j
+public class AlarmTableAgent implements Closeable {
+
+    private static final OID SEQUENCE_ID = new OID(MIB.OID_NIB_SEQUENCE_ID.toString() + ".0");
+
+    private static final List<String> DEFAULT_COLUMNS = List.of(
+            MIB.OID_CURRENT_ALARM_TABLE_ALARM_ID.toString(),
+            MIB.OID_CURRENT_ALARM_TABLE_EVENT_TIME.toString(),
+            MIB.OID_CURRENT_ALARM_TABLE_EVENT_TYPE.toString(),
+            MIB.OID_CURRENT_ALARM_TABLE_PROBLEM_CAUSE.toString());
+
+    private final int port;
+
+    private final String community;
+
+    private final int rows;
+
+    private final OID[] oids;
+
+    private final Duration latency;
+
+    // Probability of a request being dropped
+    private final double loss;
+
+    private final InetSocketAddress trapTarget;
+
+    // Traps per second sent during a replay, unlimited if not positive
+    private final double trapRate;
+
+    private final OID trapOid;
+
+    // Sent after the last row of a replay, if given
+    private final OID endTrapOid;
+
+    @Builder
+    private AlarmTableAgent(final int port,
+                            final String community,
+                            final int rows,
+                            final List<String> columns,
+                            final Duration latency,
+                            final double loss,
+                            final InetSocketAddress trapTarget,
+                            final double trapRate,
+                            final String trapOid,
+                            final String endTrapOid) {
+        if (rows < 1) {
+            throw new IllegalArgumentException("Table needs at least one row: " + rows);
+        }
+
+        this.port = port;
+        this.community = community != null ? community : "public";
+        this.rows = rows;
+        this.oids = (columns != null && !columns.isEmpty() ? columns : DEFAULT_COLUMNS).stream()
+                .map(OID::new)
+                .sorted()
+                .toArray(OID[]::new);
+        this.latency = latency != null ? latency : Duration.ZERO;
+        this.loss = loss;
+        this.trapTarget = trapTarget;
+        this.trapRate = trapRate;
+        this.trapOid = new OID(trapOid != null ? trapOid : MIB.OID_CURRENT_ALARM_TABLE.toString() + ".0.1");
+        this.endTrapOid = endTrapOid != null ? new OID(endTrapOid) : null;
+    }
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sets = new AtomicLong();
+    private final AtomicLong traps = new AtomicLong();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicBoolean replaying = new AtomicBoolean();
+
+    private final long started = System.nanoTime();
+
+    private Snmp snmp;
+
+    private DefaultUdpTransportMapping transport;
+
+    private ScheduledExecutorService executor;
+
+    public AlarmTableAgent start() throws IOException {
+        this.executor = Executors.newScheduledThreadPool(2, r -> new Thread(r, "alarm-table-agent"));
+
+        this.transport = new DefaultUdpTransportMapping(new UdpAddress(InetAddress.getLoopbackAddress(), this.port));
+        this.snmp = new Snmp(this.transport);
+        this.snmp.addCommandResponder(this.responder());
+        this.transport.listen();
+
+        log.info("Alarm table agent listening on {} ({} rows, {} columns)", this.transport.getListenAddress(), this.rows, this.oids.length);
+
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+
+        if (this.snmp != null) {
+            this.snmp.close();
+        }
+    }
+
+    public int getPort() {
+        return this.transport.getListenAddress().getPort();
+    }
+
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    public long getSets() {
+        return this.sets.get();
+    }
+
+    public long getTraps() {
+        return this.traps.get();
+    }
+
+    public boolean isReplaying() {
+        return this.replaying.get();
+    }
+
+    private CommandResponder responder() {
+        return event -> {
+            if (event.getPDU() == null || !Arrays.equals(event.getSecurityName(), this.community.getBytes())) {
+                return;
+            }
+
+            event.setProcessed(true);
+            this.requests.incrementAndGet();
+
+            if (this.loss > 0.0 && ThreadLocalRandom.current().nextDouble() < this.loss) {
+                this.dropped.incrementAndGet();
+                return;
+            }
+
+            final var response = this.respond(event);
+            if (response == null) {
+                return;
+            }
+
+            if (this.latency.isZero()) {
+                this.send(event, response);
+            } else {
+                this.executor.schedule(() -> this.send(event, response), this.latency.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+
+    private PDU respond(final CommandResponderEvent event) {
+        final var request = event.getPDU();
+
+        final var response = new PDU();
+        response.setType(PDU.RESPONSE);
+        response.setRequestID(request.getRequestID());
+
+        switch (request.getType()) {
+            case PDU.GET:
+                for (final var vb : request.getVariableBindings()) {
+                    response.add(new VariableBinding(vb.getOid(), this.get(vb.getOid())));
+                }
+                break;
+
+            case PDU.GETNEXT:
+                for (final var vb : request.getVariableBindings()) {
+                    response.add(this.next(vb.getOid()));
+                }
+                break;
+
+            case PDU.GETBULK:
+                this.bulk(request, response, event.getMaxSizeResponsePDU());
+                break;
+
+            case PDU.SET:
+                response.addAll(request.getVariableBindings());
+                this.sets.incrementAndGet();
+                if (this.trapTarget != null && this.replaying.compareAndSet(false, true)) {
+                    this.executor.execute(this::replay);
+                }
+                break;
+
+            default:
+                return null;
+        }
+
+        return response;
+    }
+
+    private void bulk(final PDU request, final PDU response, final int maxSize) {
+        final var bindings = request.getVariableBindings();
+        final var nonRepeaters = Math.max(0, Math.min(request.getNonRepeaters(), bindings.size()));
+
+        // Leave room for the message and PDU headers
+        var size = 64;
+
+        for (int i = 0; i < nonRepeaters; i++) {
+            final var vb = this.next(bindings.get(i).getOid());
+            response.add(vb);
+            size += vb.getBERLength();
+        }
+
+        final var repeaters = new ArrayList<OID>();
+        for (int i = nonRepeaters; i < bindings.size(); i++) {
+            repeaters.add(bindings.get(i).getOid());
+        }
+
+        for (int repetition = 0; repetition < Math.max(request.getMaxRepetitions(), 1) && !repeaters.isEmpty(); repetition++) {
+            for (int i = 0; i < repeaters.size(); i++) {
+                final var vb = this.next(repeaters.get(i));
+                size += vb.getBERLength();
+                if (size > maxSize) {
+                    return;
+                }
+
+                response.add(vb);
+                repeaters.set(i, vb.getOid());
+            }
+        }
+    }
+
+    private Variable get(final OID oid) {
+        if (oid.equals(SEQUENCE_ID)) {
+            return new Counter32(this.sequence.get() + this.rows);
+        }
+
+        for (int column = 0; column < this.oids.length; column++) {
+            final var base = this.oids[column];
+            if (oid.size() == base.size() + 1 && oid.startsWith(base)) {
+                final var row = oid.get(base.size());
+                if (row >= 1 && row <= this.rows) {
+                    return this.value(column, row);
+                }
+            }
+        }
+
+        return Null.noSuchObject;
+    }
+
+    private VariableBinding next(final OID oid) {
+        for (int column = 0; column < this.oids.length; column++) {
+            final var base = this.oids[column];
+
+            // Before the column, the first row is next
+            if (oid.compareTo(base) < 0) {
+                return this.binding(column, 1);
+            }
+
+            // Within the column, the next row is next if there is one
+            if (oid.startsWith(base)) {
+                final var row = oid.size() > base.size()
+                        ? oid.getUnsigned(base.size()) + 1
+                        : 1L;
+                if (row <= this.rows) {
+                    return this.binding(column, (int) row);
+                }
+            }
+        }
+
+        return new VariableBinding(oid, Null.endOfMibView);
+    }
+
+    private VariableBinding binding(final int column, final int row) {
+        return new VariableBinding(new OID(this.oids[column]).append(row), this.value(column, row));
+    }
+
+    private Variable value(final int column, final int row) {
+        return column == 0
+                ? new Integer32(row)
+                : new OctetString("alarm-" + row + "-" + column);
+    }
+
+    private void send(final CommandResponderEvent event, final PDU response) {
+        try {
+            event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(),
+                    event.getSecurityModel(),
+                    event.getSecurityName(),
+                    event.getSecurityLevel(),
+                    response,
+                    event.getMaxSizeResponsePDU(),
+                    event.getStateReference(),
+                    new StatusInformation());
+        } catch (final MessageException e) {
+            log.warn("Failed to send response", e);
+        }
+    }
+
+    private void replay() {
+        try {
+            final var target = new CommunityTarget();
+            target.setCommunity(new OctetString(this.community));
+            target.setVersion(SnmpConstants.version2c);
+            target.setAddress(new UdpAddress(this.trapTarget.getAddress(), this.trapTarget.getPort()));
+
+            final var pacer = this.trapRate > 0.0
+                    ? Pacer.rate(this.trapRate)
+                    : Pacer.unlimited();
+
+            for (int row = 1; row <= this.rows; row++) {
+                pacer.await(0);
+
+                final var trap = this.trap(this.trapOid);
+                trap.add(new VariableBinding(SEQUENCE_ID, new Counter32(this.sequence.incrementAndGet())));
+                for (int column = 0; column < this.oids.length; column++) {
+                    trap.add(this.binding(column, row));
+                }
+
+                this.snmp.send(trap, target);
+                this.traps.incrementAndGet();
+            }
+
+            if (this.endTrapOid != null) {
+                this.snmp.send(this.trap(this.endTrapOid), target);
+                this.traps.incrementAndGet();
+            }
+        } catch (final IOException e) {
+            log.warn("Failed to replay alarm table", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.replaying.set(false);
+        }
+    }
+
+    private PDU trap(final OID oid) {
+        final var trap = new PDU();
+        trap.setType(PDU.TRAP);
+        trap.add(new VariableBinding(SnmpConstants.sysUpTime, new TimeTicks(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.started) / 10)));
+        trap.add(new VariableBinding(SnmpConstants.snmpTrapOID, oid));
+        return trap;
+    }
+}
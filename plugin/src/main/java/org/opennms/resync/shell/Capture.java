@@ -0,0 +1,329 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.shell;
+
+import io.pkts.Pcap;
+import io.pkts.packet.UDPPacket;
+import io.pkts.protocol.Protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The UDP payloads of a pcap file held in a single direct buffer.
+ *
+ * Senders use their own view of the buffer to send packets without copying or allocating.
+ */
+public class Capture {
+
+    private static final int PCAP_HEADER_SIZE = 24;
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    private static final int LINKTYPE_NULL = 0;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_RAW = 101;
+    private static final int LINKTYPE_LINUX_SLL = 113;
+    private static final int LINKTYPE_IPV4 = 228;
+    private static final int LINKTYPE_IPV6 = 229;
+
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_IPV6 = 0x86dd;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int ETHERTYPE_QINQ = 0x88a8;
+
+    private static final byte PROTOCOL_UDP = 17;
+
+    private final ByteBuffer data;
+
+    private final int[] offsets;
+    private final int[] lengths;
+
+    // Capture timestamps in microseconds
+    private final long[] timestamps;
+
+    private Capture(final ByteBuffer data, final int[] offsets, final int[] lengths, final long[] timestamps) {
+        this.data = data;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.timestamps = timestamps;
+    }
+
+    public static Capture load(final File file) throws IOException {
+        final var payloads = new ByteArrayOutputStream();
+
+        final int[] offsets;
+        final int[] lengths;
+        final long[] timestamps;
+        final int count;
+
+        try (final InputStream in = new FileInputStream(file)) {
+            final Pcap pcap = Pcap.openStream(in);
+
+            // Collected into arrays referenced by the callback
+            final var state = new Object() {
+                int[] offsets = new int[1024];
+                int[] lengths = new int[1024];
+                long[] timestamps = new long[1024];
+                int count = 0;
+            };
+
+            pcap.loop(packet -> {
+                if (!packet.hasProtocol(Protocol.UDP)) {
+                    return true;
+                }
+
+                final UDPPacket udp = (UDPPacket) packet.getPacket(Protocol.UDP);
+                final var payload = udp.getPayload().getArray();
+
+                if (state.count == state.offsets.length) {
+                    state.offsets = Arrays.copyOf(state.offsets, state.count * 2);
+                    state.lengths = Arrays.copyOf(state.lengths, state.count * 2);
+                    state.timestamps = Arrays.copyOf(state.timestamps, state.count * 2);
+                }
+
+                state.offsets[state.count] = payloads.size();
+                state.lengths[state.count] = payload.length;
+                state.timestamps[state.count] = packet.getArrivalTime();
+                state.count++;
+
+                payloads.write(payload, 0, payload.length);
+                return true;
+            });
+
+            offsets = state.offsets;
+            lengths = state.lengths;
+            timestamps = state.timestamps;
+            count = state.count;
+        }
+
+        final var data = ByteBuffer.allocateDirect(payloads.size());
+        data.put(payloads.toByteArray());
+        data.flip();
+
+        return new Capture(data,
+                Arrays.copyOf(offsets, count),
+                Arrays.copyOf(lengths, count),
+                Arrays.copyOf(timestamps, count));
+    }
+
+    /**
+     * Memory-maps a pcap file and indexes the UDP payloads in place without decoding the packets.
+     *
+     * Supports classic pcap files with Ethernet (including VLAN tags), Linux cooked, raw IP and loopback link types.
+     * Fragmented IP packets are skipped.
+     */
+    public static Capture map(final File file) throws IOException {
+        final MappedByteBuffer data;
+        try (final var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Capture too large to map: " + channel.size());
+            }
+
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (data.limit() < PCAP_HEADER_SIZE) {
+            throw new IOException("Not a pcap file: " + file);
+        }
+
+        final boolean nanos;
+        switch (data.order(ByteOrder.BIG_ENDIAN).getInt(0)) {
+            case 0xa1b2c3d4: nanos = false; break;
+            case 0xd4c3b2a1: nanos = false; data.order(ByteOrder.LITTLE_ENDIAN); break;
+            case 0xa1b23c4d: nanos = true; break;
+            case 0x4d3cb2a1: nanos = true; data.order(ByteOrder.LITTLE_ENDIAN); break;
+            default: throw new IOException("Not a pcap file: " + file);
+        }
+
+        final var linkType = data.getInt(20) & 0x0fffffff;
+
+        // Headers within the packets are in network byte order
+        final var packets = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        var offsets = new int[1024];
+        var lengths = new int[1024];
+        var timestamps = new long[1024];
+        var count = 0;
+
+        var position = PCAP_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= data.limit()) {
+            final var seconds = Integer.toUnsignedLong(data.getInt(position));
+            final var fraction = Integer.toUnsignedLong(data.getInt(position + 4));
+            final var captured = data.getInt(position + 8);
+
+            final var frame = position + RECORD_HEADER_SIZE;
+            if (captured < 0 || frame + captured > data.limit()) {
+                break;
+            }
+
+            final var payload = udpPayload(packets, linkType, frame, frame + captured);
+            if (payload >= 0) {
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    lengths = Arrays.copyOf(lengths, count * 2);
+                    timestamps = Arrays.copyOf(timestamps, count * 2);
+                }
+
+                offsets[count] = (int) (payload >>> 32);
+                lengths[count] = (int) payload;
+                timestamps[count] = seconds * 1_000_000L + (nanos ? fraction / 1000 : fraction);
+                count++;
+            }
+
+            position = frame + captured;
+        }
+
+        return new Capture(data,
+                Arrays.copyOf(offsets, count),
+                Arrays.copyOf(lengths, count),
+                Arrays.copyOf(timestamps, count));
+    }
+
+    /**
+     * @return the offset of the UDP payload in the upper and its length in the lower half or {@code -1} if the frame
+     *         is not a UDP packet
+     */
+    private static long udpPayload(final ByteBuffer packets, final int linkType, final int frame, final int end) {
+        var network = frame;
+        var etherType = -1;
+
+        switch (linkType) {
+            case LINKTYPE_ETHERNET:
+                network += 14;
+                if (network > end) {
+                    return -1;
+                }
+                etherType = Short.toUnsignedInt(packets.getShort(network - 2));
+                while ((etherType == ETHERTYPE_VLAN || etherType == ETHERTYPE_QINQ) && network + 4 <= end) {
+                    etherType = Short.toUnsignedInt(packets.getShort(network + 2));
+                    network += 4;
+                }
+                break;
+
+            case LINKTYPE_LINUX_SLL:
+                network += 16;
+                if (network > end) {
+                    return -1;
+                }
+                etherType = Short.toUnsignedInt(packets.getShort(network - 2));
+                break;
+
+            case LINKTYPE_NULL:
+                network += 4;
+                break;
+
+            case LINKTYPE_RAW:
+            case LINKTYPE_IPV4:
+            case LINKTYPE_IPV6:
+                break;
+
+            default:
+                return -1;
+        }
+
+        if (network >= end) {
+            return -1;
+        }
+
+        // Link types without an ether type carry the IP version in the first nibble
+        final var version = (packets.get(network) & 0xf0) >> 4;
+
+        final int transport;
+        if (version == 4 && (etherType == -1 || etherType == ETHERTYPE_IPV4)) {
+            if (network + 20 > end || packets.get(network + 9) != PROTOCOL_UDP) {
+                return -1;
+            }
+
+            // Later fragments carry no UDP header and first fragments only part of the payload
+            if ((packets.getShort(network + 6) & 0x3fff) != 0) {
+                return -1;
+            }
+
+            transport = network + (packets.get(network) & 0x0f) * 4;
+
+        } else if (version == 6 && (etherType == -1 || etherType == ETHERTYPE_IPV6)) {
+            if (network + 40 > end || packets.get(network + 6) != PROTOCOL_UDP) {
+                return -1;
+            }
+
+            transport = network + 40;
+
+        } else {
+            return -1;
+        }
+
+        if (transport + 8 > end) {
+            return -1;
+        }
+
+        final var offset = transport + 8;
+        final var length = Math.min(Short.toUnsignedInt(packets.getShort(transport + 4)) - 8, end - offset);
+        if (length < 0) {
+            return -1;
+        }
+
+        return ((long) offset << 32) | length;
+    }
+
+    public int size() {
+        return this.offsets.length;
+    }
+
+    /**
+     * @return the time between the first and the last packet in microseconds
+     */
+    public long duration() {
+        return this.offsets.length > 0
+                ? this.timestamps[this.offsets.length - 1] - this.timestamps[0]
+                : 0L;
+    }
+
+    public long timestamp(final int index) {
+        return this.timestamps[index];
+    }
+
+    /**
+     * @return a view of the captured data to pass to {@link #select(ByteBuffer, int)}
+     */
+    public ByteBuffer view() {
+        return this.data.duplicate();
+    }
+
+    /**
+     * Limits the view to the payload of a packet.
+     */
+    public ByteBuffer select(final ByteBuffer view, final int index) {
+        view.limit(this.offsets[index] + this.lengths[index]);
+        view.position(this.offsets[index]);
+        return view;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.shell;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces packets at nanosecond resolution.
+ *
+ * Packets are scheduled relative to the start instead of the previous packet, so delays do not accumulate. Waits park
+ * the thread until shortly before the deadline and spin for the remainder, as parking alone overshoots by tens of
+ * microseconds.
+ */
+public class Pacer {
+
+    // Remaining time below which the pacer spins instead of parking
+    private static final long SPIN_THRESHOLD = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final long interval;
+
+    private final double speed;
+
+    private long start = -1;
+
+    private long origin = Long.MIN_VALUE;
+
+    private long last;
+
+    private long count = 0;
+
+    private Pacer(final long interval, final double speed) {
+        this.interval = interval;
+        this.speed = speed;
+    }
+
+    /**
+     * Paces packets at a fixed rate.
+     */
+    public static Pacer rate(final double pps) {
+        if (pps <= 0.0) {
+            throw new IllegalArgumentException("Rate must be positive: " + pps);
+        }
+
+        return new Pacer((long) (TimeUnit.SECONDS.toNanos(1) / pps), 0.0);
+    }
+
+    /**
+     * Paces packets by their capture timestamps, scaled by the speed.
+     */
+    public static Pacer realtime(final double speed) {
+        if (speed <= 0.0) {
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        }
+
+        return new Pacer(0L, speed);
+    }
+
+    /**
+     * Paces packets by their capture timestamps relative to the given origin, scaled by the speed.
+     *
+     * Pacers sharing the origin keep the timing between each other even if they pace different packets.
+     */
+    public static Pacer realtime(final double speed, final long origin) {
+        final var pacer = realtime(speed);
+        pacer.origin = origin;
+        return pacer;
+    }
+
+    /**
+     * Sends packets as fast as possible.
+     */
+    public static Pacer unlimited() {
+        return new Pacer(0L, 0.0);
+    }
+
+    /**
+     * Waits until the next packet is due.
+     *
+     * @param timestamp the capture timestamp of the packet in microseconds
+     */
+    public void await(final long timestamp) throws InterruptedException {
+        final var now = System.nanoTime();
+
+        if (this.start < 0) {
+            this.start = now;
+            if (this.origin == Long.MIN_VALUE) {
+                this.origin = timestamp;
+            }
+        }
+
+        this.last = timestamp;
+
+        final long offset;
+        if (this.speed > 0.0) {
+            offset = (long) (TimeUnit.MICROSECONDS.toNanos(Math.max(0, timestamp - this.origin)) / this.speed);
+        } else {
+            offset = this.count * this.interval;
+        }
+
+        this.count++;
+
+        final var deadline = this.start + offset;
+        while (true) {
+            final var remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            if (remaining > SPIN_THRESHOLD) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * @return the packets per second scheduled so far or {@code NaN} if not paced
+     */
+    public double getTargetRate() {
+        if (this.interval > 0) {
+            return (double) TimeUnit.SECONDS.toNanos(1) / this.interval;
+        }
+
+        if (this.speed > 0.0 && this.count >= 2 && this.last > this.origin) {
+            return (this.count - 1) * (double) TimeUnit.SECONDS.toMicros(1) * this.speed / (this.last - this.origin);
+        }
+
+        return Double.NaN;
+    }
+
+    /**
+     * @return the packets per second achieved since the first packet
+     */
+    public double getAchievedRate() {
+        if (this.start < 0 || this.count < 2) {
+            return Double.NaN;
+        }
+
+        final var elapsed = System.nanoTime() - this.start;
+        return elapsed > 0
+                ? (this.count - 1) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed
+                : Double.NaN;
+    }
+}
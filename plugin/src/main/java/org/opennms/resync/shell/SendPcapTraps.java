@@ -23,9 +23,7 @@
 package org.opennms.resync.shell;
 
 import com.google.common.net.HostAndPort;
-import io.pkts.Pcap;
-import io.pkts.packet.UDPPacket;
-import io.pkts.protocol.Protocol;
+import com.google.common.net.InetAddresses;
 import org.apache.karaf.shell.api.action.Action;
 import org.apache.karaf.shell.api.action.Argument;
 import org.apache.karaf.shell.api.action.Command;
@@ -33,64 +31,331 @@ import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.concurrent.atomic.AtomicLong;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Command(scope = "opennms-resync", name = "send-pcap-traps", description = "Send Traps from .pcap file")
 @Service
 public class SendPcapTraps implements Action {
 
+    private static final int MAX_PACKET_SIZE = 65535;
+
     @Argument(index = 0, name = "pcap", description = "Path to .pcap file for replay", required = true)
     public File pcapFile;
 
     @Argument(index = 1, name = "dst", description = "Destination address and port")
     public String destination = "localhost:10162";
 
-    @Option(name = "--throttle", description = "Delay between packets")
+    @Option(name = "--throttle", description = "Delay between packets in milliseconds, if neither --pps nor --realtime is given")
     public int throttle = 10;
 
+    @Option(name = "--pps", description = "Packets per second to send")
+    public Double pps = null;
+
+    @Option(name = "--realtime", description = "Replay packets using their capture timestamps")
+    public boolean realtime = false;
+
+    @Option(name = "--speed", description = "Multiplier for the capture timestamps in realtime mode")
+    public double speed = 1.0;
+
+    @Option(name = "--threads", description = "Number of sending threads, each sending every n-th packet")
+    public int threads = 1;
+
+    @Option(name = "--loop", description = "Number of times to replay the file")
+    public int loop = 1;
+
+    @Option(name = "--sources", description = "Local addresses to send from, each simulating a node (e.g. 127.0.1.1-127.0.1.200,127.0.2.1)")
+    public String sources = null;
+
+    @Option(name = "--ports", description = "Source ports per local address, each simulating a node")
+    public int ports = 1;
+
+    @Option(name = "--identities", description = "Addresses set as the trap source of the simulated nodes, defaults to the local addresses")
+    public String identities = null;
+
+    @Option(name = "--sequence-offset", description = "Offset between the sequence IDs of consecutive simulated nodes")
+    public long sequenceOffset = 0;
+
+    @Option(name = "--mmap", description = "Memory-map the file and index the UDP payloads in place instead of decoding all packets")
+    public boolean mmap = false;
+
     @Override
     public Object execute() throws Exception {
         final var destination = this.parseDestination();
 
-        try (final InputStream in = new FileInputStream(pcapFile);
-             final DatagramSocket socket = new DatagramSocket()) {
-            System.out.printf("Processing packets from '%s'.%n", pcapFile);
-            final AtomicLong packetCount = new AtomicLong();
-            final Pcap pcap = Pcap.openStream(in);
-            pcap.loop(packet -> {
-                if (packet.hasProtocol(Protocol.UDP)) {
-                    packetCount.getAndIncrement();
-
-                    if (packetCount.get() % 1000 == 0) {
-                        System.out.printf("Processing packet #%d.%n", packetCount.get());
+        System.out.printf("Loading packets from '%s'.%n", pcapFile);
+        final var capture = this.mmap
+                ? Capture.map(this.pcapFile)
+                : Capture.load(this.pcapFile);
+        if (capture.size() == 0) {
+            System.out.println("No UDP packets found.");
+            return null;
+        }
+
+        final var nodes = this.nodes();
+
+        final var threads = Math.max(1, Math.min(this.threads, nodes.isEmpty() ? capture.size() : nodes.size()));
+        final var stats = new Stats();
+
+        // Sequence IDs of later loops continue after the ones of the previous loop
+        final var sequenceSpan = !nodes.isEmpty() && this.loop > 1
+                ? sequenceSpan(capture)
+                : 0L;
+
+        final var pacers = new ArrayList<Pacer>(threads);
+        for (int i = 0; i < threads; i++) {
+            pacers.add(this.pacer(threads, capture.timestamp(0)));
+        }
+
+        if (nodes.isEmpty()) {
+            System.out.printf("Sending %d packets %d times from %d threads.%n", capture.size(), this.loop, threads);
+        } else {
+            System.out.printf("Sending %d packets %d times for %d nodes from %d threads.%n", capture.size(), this.loop, nodes.size(), threads);
+        }
+
+        final var senders = Executors.newFixedThreadPool(threads);
+        final var reporter = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final var started = System.nanoTime();
+
+            reporter.scheduleAtFixedRate(() -> stats.report(pacers), 1, 1, TimeUnit.SECONDS);
+
+            final var futures = new ArrayList<Future<?>>(threads);
+            for (int i = 0; i < threads; i++) {
+                final var index = i;
+                futures.add(senders.submit(() -> {
+                    if (nodes.isEmpty()) {
+                        this.send(capture, destination, index, threads, pacers.get(index), stats);
+                    } else {
+                        this.send(capture, destination, nodes, index, threads, sequenceSpan, pacers.get(index), stats);
                     }
+                    return null;
+                }));
+            }
+
+            for (final var future : futures) {
+                future.get();
+            }
+
+            final var elapsed = (System.nanoTime() - started) / 1e9;
+            System.out.printf("Done sending %d packets (%d errors) in %.3fs (target %s, achieved %.1f pps).%n",
+                    stats.sent.sum(), stats.errors.sum(), elapsed, targetRate(pacers), stats.sent.sum() / elapsed);
+        } finally {
+            reporter.shutdownNow();
+            senders.shutdownNow();
+        }
 
-                    final UDPPacket udp = (UDPPacket) packet.getPacket(Protocol.UDP);
+        return null;
+    }
 
-                    final var payload = udp.getPayload().getArray();
+    private void send(final Capture capture,
+                      final InetSocketAddress destination,
+                      final int first,
+                      final int stride,
+                      final Pacer pacer,
+                      final Stats stats) throws IOException, InterruptedException {
+        final var view = capture.view();
 
-                    final DatagramPacket pkt = new DatagramPacket(payload, payload.length, destination);
-                    socket.send(pkt);
+        // Shift the timestamps of each loop to continue after the previous one
+        final var period = capture.duration() + Math.max(1L, capture.duration() / capture.size());
+
+        try (final var channel = DatagramChannel.open()) {
+            channel.connect(destination);
+
+            for (int loop = 0; loop < this.loop; loop++) {
+                for (int i = first; i < capture.size(); i += stride) {
+                    pacer.await(capture.timestamp(i) + loop * period);
 
                     try {
-                        if (this.throttle > 0) {
-                            Thread.sleep(this.throttle);
+                        stats.bytes.add(channel.write(capture.select(view, i)));
+                        stats.sent.increment();
+                    } catch (final IOException e) {
+                        // Connected channels report ICMP errors of earlier packets
+                        stats.errors.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends every packet once for each simulated node, rewritten to the identity and sequence IDs of the node.
+     *
+     * Each thread sends for every n-th node, so the traps of a node are sent in order.
+     */
+    private void send(final Capture capture,
+                      final InetSocketAddress destination,
+                      final List<Node> nodes,
+                      final int first,
+                      final int stride,
+                      final long sequenceSpan,
+                      final Pacer pacer,
+                      final Stats stats) throws IOException, InterruptedException {
+        final var view = capture.view();
+
+        final var period = capture.duration() + Math.max(1L, capture.duration() / capture.size());
+
+        final var rewriter = new TrapRewriter();
+        final var packet = new byte[MAX_PACKET_SIZE];
+
+        // Owned by this thread - traps are rewritten into direct buffers, so the channel sends them without copying
+        final var rewritten = ByteBuffer.allocateDirect(2 * MAX_PACKET_SIZE);
+        final var unchanged = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+
+        final var owned = new ArrayList<Node>();
+        final var channels = new ArrayList<DatagramChannel>();
+        try {
+            for (int i = first; i < nodes.size(); i += stride) {
+                final var channel = DatagramChannel.open();
+                channels.add(channel);
+
+                channel.bind(new InetSocketAddress(nodes.get(i).source, 0));
+                channel.connect(destination);
+
+                owned.add(nodes.get(i));
+            }
+
+            for (int loop = 0; loop < this.loop; loop++) {
+                for (int i = 0; i < capture.size(); i++) {
+                    final var data = capture.select(view, i);
+                    final var length = data.remaining();
+                    data.get(packet, 0, length);
+
+                    unchanged.clear();
+                    unchanged.put(packet, 0, length);
+
+                    for (int n = 0; n < owned.size(); n++) {
+                        final var node = owned.get(n);
+
+                        pacer.await(capture.timestamp(i) + loop * period);
+
+                        final var size = rewriter.rewrite(packet, length, rewritten, node.identity,
+                                node.index * this.sequenceOffset + loop * sequenceSpan);
+
+                        // Packets which are not traps are sent unchanged
+                        final var buffer = size >= 0
+                                ? rewritten.clear().limit(size)
+                                : unchanged.clear().limit(length);
+
+                        try {
+                            stats.bytes.add(channels.get(n).write(buffer));
+                            stats.sent.increment();
+                        } catch (final IOException e) {
+                            stats.errors.increment();
                         }
-                    } catch (final InterruptedException e) {
-                        throw new RuntimeException(e);
                     }
                 }
-                return true;
-            });
-            System.out.printf("Done processing %d packets.%n", packetCount.get());
+            }
+        } finally {
+            for (final var channel : channels) {
+                channel.close();
+            }
         }
+    }
 
-        return null;
+    private List<Node> nodes() {
+        if (this.sources == null) {
+            return List.of();
+        }
+
+        final var sources = addresses(this.sources);
+        final var identities = this.identities != null
+                ? addresses(this.identities)
+                : sources;
+
+        final var result = new ArrayList<Node>(sources.size() * this.ports);
+        for (final var source : sources) {
+            for (int port = 0; port < this.ports; port++) {
+                final var index = result.size();
+                final var identity = identities.get(index % identities.size());
+
+                // Traps carry IPv4 addresses only
+                result.add(new Node(index, source, identity instanceof Inet4Address
+                        ? identity.getAddress()
+                        : null));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses a comma separated list of addresses and IPv4 address ranges.
+     */
+    private static List<InetAddress> addresses(final String spec) {
+        final var result = new ArrayList<InetAddress>();
+        for (final var element : spec.split(",")) {
+            final var range = element.trim().split("-", 2);
+            if (range.length == 1) {
+                result.add(InetAddresses.forString(range[0]));
+                continue;
+            }
+
+            final var from = InetAddresses.coerceToInteger(InetAddresses.forString(range[0].trim()));
+            final var to = InetAddresses.coerceToInteger(InetAddresses.forString(range[1].trim()));
+            for (long address = Integer.toUnsignedLong(from); address <= Integer.toUnsignedLong(to); address++) {
+                result.add(InetAddresses.fromInteger((int) address));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of sequence IDs covered by the traps of the capture
+     */
+    private static long sequenceSpan(final Capture capture) {
+        final var view = capture.view();
+
+        final var rewriter = new TrapRewriter();
+        final var packet = new byte[MAX_PACKET_SIZE];
+        final var rewritten = new byte[2 * MAX_PACKET_SIZE];
+
+        var min = Long.MAX_VALUE;
+        var max = Long.MIN_VALUE;
+        for (int i = 0; i < capture.size(); i++) {
+            final var data = capture.select(view, i);
+            final var length = data.remaining();
+            data.get(packet, 0, length);
+
+            if (rewriter.rewrite(packet, length, rewritten, null, 0) >= 0 && rewriter.getSequence() >= 0) {
+                min = Math.min(min, rewriter.getSequence());
+                max = Math.max(max, rewriter.getSequence());
+            }
+        }
+
+        return max >= min ? max - min + 1 : 0L;
+    }
+
+    private Pacer pacer(final int threads, final long origin) {
+        if (this.realtime) {
+            return Pacer.realtime(this.speed, origin);
+        }
+
+        if (this.pps != null) {
+            return Pacer.rate(this.pps / threads);
+        }
+
+        return this.throttle > 0
+                ? Pacer.rate(1000.0 / this.throttle / threads)
+                : Pacer.unlimited();
+    }
+
+    private static String targetRate(final List<Pacer> pacers) {
+        final var rate = pacers.stream()
+                .mapToDouble(Pacer::getTargetRate)
+                .sum();
+        return Double.isNaN(rate)
+                ? "unlimited"
+                : String.format("%.1f pps", rate);
     }
 
     private InetSocketAddress parseDestination() {
@@ -98,4 +363,43 @@ public class SendPcapTraps implements Action {
         return new InetSocketAddress(dst.getHost(), dst.getPort());
 
     }
+
+    private static class Node {
+        private final int index;
+        private final InetAddress source;
+        private final byte[] identity;
+
+        private Node(final int index, final InetAddress source, final byte[] identity) {
+            this.index = index;
+            this.source = source;
+            this.identity = identity;
+        }
+    }
+
+    private static class Stats {
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        private long lastSent = 0;
+        private long lastErrors = 0;
+        private long lastBytes = 0;
+
+        private void report(final List<Pacer> pacers) {
+            final var sent = this.sent.sum();
+            final var errors = this.errors.sum();
+            final var bytes = this.bytes.sum();
+
+            System.out.printf("Sent %d packets/s (%.1f Mbit/s, %d errors/s), %d total (target %s).%n",
+                    sent - this.lastSent,
+                    (bytes - this.lastBytes) * 8 / 1e6,
+                    errors - this.lastErrors,
+                    sent,
+                    targetRate(pacers));
+
+            this.lastSent = sent;
+            this.lastErrors = errors;
+            this.lastBytes = bytes;
+        }
+    }
 }
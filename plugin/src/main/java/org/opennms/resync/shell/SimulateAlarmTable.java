@@ -0,0 +1,123 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.shell;
+
+import com.google.common.base.Splitter;
+import com.google.common.net.HostAndPort;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+@Command(scope = "opennms-resync", name = "simulate-alarm-table", description = "Serve a synthetic alarm table from a local SNMP agent")
+@Service
+public class SimulateAlarmTable implements Action {
+
+    @Option(name = "--port", description = "Local UDP port to listen on")
+    public int port = 1161;
+
+    @Option(name = "--community", description = "Community accepted by the agent and used for traps")
+    public String community = "public";
+
+    @Option(name = "--rows", description = "Number of rows in the alarm table")
+    public int rows = 1000;
+
+    @Option(name = "--columns", description = "Comma separated column OIDs, defaults to the columns of the current alarm table")
+    public String columns = null;
+
+    @Option(name = "--latency", description = "Delay before answering a request in milliseconds")
+    public long latency = 0;
+
+    @Option(name = "--loss", description = "Probability of a request being dropped")
+    public double loss = 0.0;
+
+    @Option(name = "--trap-target", description = "Address and port to replay the table to as traps on any SET")
+    public String trapTarget = null;
+
+    @Option(name = "--trap-rate", description = "Traps per second during a replay, unlimited if not given")
+    public double trapRate = 0.0;
+
+    @Option(name = "--trap-oid", description = "Trap OID of the replayed rows")
+    public String trapOid = null;
+
+    @Option(name = "--end-trap-oid", description = "Trap OID sent after the last replayed row")
+    public String endTrapOid = null;
+
+    @Option(name = "--duration", description = "Seconds to run before stopping, runs until interrupted if not given")
+    public long duration = 0;
+
+    @Override
+    public Object execute() throws Exception {
+        if (this.loss < 0.0 || this.loss > 1.0) {
+            throw new IllegalArgumentException("Loss must be between 0 and 1: " + this.loss);
+        }
+
+        final var builder = AlarmTableAgent.builder()
+                .port(this.port)
+                .community(this.community)
+                .rows(this.rows)
+                .latency(Duration.ofMillis(this.latency))
+                .loss(this.loss)
+                .trapRate(this.trapRate)
+                .endTrapOid(this.endTrapOid);
+
+        if (this.columns != null) {
+            builder.columns(Splitter.on(',').trimResults().omitEmptyStrings().splitToList(this.columns));
+        }
+
+        if (this.trapTarget != null) {
+            final var target = HostAndPort.fromString(this.trapTarget).withDefaultPort(162);
+            builder.trapTarget(new InetSocketAddress(target.getHost(), target.getPort()));
+        }
+
+        if (this.trapOid != null) {
+            builder.trapOid(this.trapOid);
+        }
+
+        try (final var agent = builder.build().start()) {
+            System.out.printf("Serving %d rows on 127.0.0.1:%d.%n", this.rows, agent.getPort());
+
+            final var deadline = this.duration > 0
+                    ? System.nanoTime() + TimeUnit.SECONDS.toNanos(this.duration)
+                    : Long.MAX_VALUE;
+
+            while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+                } catch (final InterruptedException e) {
+                    break;
+                }
+
+                System.out.printf("requests=%d dropped=%d sets=%d traps=%d%s%n",
+                        agent.getRequests(), agent.getDropped(), agent.getSets(), agent.getTraps(),
+                        agent.isReplaying() ? " (replaying)" : "");
+            }
+        }
+
+        return null;
+    }
+}
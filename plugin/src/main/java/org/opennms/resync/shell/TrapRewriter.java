@@ -0,0 +1,371 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.shell;
+
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.resync.constants.MIB;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Rewrites the identity and the sequence ID of BER encoded SNMP traps.
+ *
+ * The agent address of SNMPv1 traps and the {@code snmpTrapAddress} varbind of SNMPv2 traps and informs are replaced
+ * by the given address, and the offset is added to the NBI sequence ID varbind. All other parts of the message are
+ * copied as-is, while the lengths of the enclosing sequences are re-encoded. An instance reuses its state and must not
+ * be shared between threads.
+ */
+public class TrapRewriter {
+
+    private static final int TAG_INTEGER = 0x02;
+    private static final int TAG_OID = 0x06;
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_IP_ADDRESS = 0x40;
+    private static final int TAG_COUNTER32 = 0x41;
+    private static final int TAG_GAUGE32 = 0x42;
+    private static final int TAG_INFORM = 0xa6;
+    private static final int TAG_TRAP_V1 = 0xa4;
+    private static final int TAG_TRAP_V2 = 0xa7;
+
+    // Space reserved for the header of rewritten sequences, which is compacted once the length is known
+    private static final int RESERVED = 5;
+
+    private static final byte[] SEQUENCE_ID = encode(MIB.OID_NIB_SEQUENCE_ID);
+    private static final byte[] TRAP_ADDRESS = encode(MIB.OID_SNMP_TRAP_ADDRESS);
+
+    private byte[] in;
+    private int ip;
+
+    private ByteBuffer out;
+    private int op;
+
+    private byte[] address;
+    private long offset;
+
+    private long sequence;
+
+    /**
+     * Rewrites a trap.
+     *
+     * @param address the IPv4 address to set as the source of the trap or {@code null} to keep it
+     * @param offset the offset to add to the sequence ID
+     * @return the length of the rewritten trap in {@code out} or {@code -1} if the packet is not a trap
+     */
+    public int rewrite(final byte[] in, final int length, final byte[] out, final byte[] address, final long offset) {
+        return this.rewrite(in, length, ByteBuffer.wrap(out), address, offset);
+    }
+
+    /**
+     * Rewrites a trap into a buffer, which may be a direct buffer to send from.
+     *
+     * The position and limit of the buffer are not used and left undefined.
+     *
+     * @return the length of the rewritten trap starting at index 0 of {@code out} or {@code -1} if the packet is not a
+     *         trap
+     */
+    public int rewrite(final byte[] in, final int length, final ByteBuffer out, final byte[] address, final long offset) {
+        out.clear();
+
+        this.in = in;
+        this.ip = 0;
+        this.out = out;
+        this.op = 0;
+        this.address = address != null && address.length == 4 ? address : null;
+        this.offset = offset;
+        this.sequence = -1;
+
+        try {
+            if (length < 2 || this.tag() != TAG_SEQUENCE) {
+                return -1;
+            }
+
+            final var message = this.op;
+            final var messageEnd = this.enter(length);
+
+            this.copy(messageEnd); // version
+            this.copy(messageEnd); // community
+
+            final var pdu = this.op;
+            switch (this.tag()) {
+                case TAG_TRAP_V1: {
+                    final var pduEnd = this.enter(messageEnd);
+                    this.copy(pduEnd); // enterprise
+                    this.address(pduEnd);
+                    this.copy(pduEnd); // generic trap
+                    this.copy(pduEnd); // specific trap
+                    this.copy(pduEnd); // timestamp
+                    this.varbinds(pduEnd);
+                    this.rest(pduEnd);
+                    this.leave(pdu);
+                    break;
+                }
+
+                case TAG_TRAP_V2:
+                case TAG_INFORM: {
+                    final var pduEnd = this.enter(messageEnd);
+                    this.copy(pduEnd); // request ID
+                    this.copy(pduEnd); // error status
+                    this.copy(pduEnd); // error index
+                    this.varbinds(pduEnd);
+                    this.rest(pduEnd);
+                    this.leave(pdu);
+                    break;
+                }
+
+                default:
+                    return -1;
+            }
+
+            this.rest(messageEnd);
+            this.leave(message);
+
+            return this.op;
+
+        } catch (final IllegalArgumentException | IndexOutOfBoundsException | BufferOverflowException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the original sequence ID of the last rewritten trap or {@code -1} if it carried none
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    private void varbinds(final int end) {
+        final var varbinds = this.op;
+        final var varbindsEnd = this.enter(end);
+
+        while (this.ip < varbindsEnd) {
+            final var varbind = this.op;
+            final var varbindEnd = this.enter(varbindsEnd);
+
+            if (this.tag() != TAG_OID) {
+                throw new IllegalArgumentException("Varbind without OID");
+            }
+
+            final var oid = this.ip + this.header();
+            final var oidLength = this.length();
+            this.copy(varbindEnd);
+
+            if (startsWith(this.in, oid, oidLength, SEQUENCE_ID)) {
+                this.sequence(varbindEnd);
+            } else if (oidLength == TRAP_ADDRESS.length && startsWith(this.in, oid, oidLength, TRAP_ADDRESS)) {
+                this.address(varbindEnd);
+            }
+
+            this.rest(varbindEnd);
+            this.leave(varbind);
+        }
+
+        this.leave(varbinds);
+    }
+
+    private void address(final int end) {
+        if (this.address == null || this.tag() != TAG_IP_ADDRESS || this.length() != 4) {
+            this.copy(end);
+            return;
+        }
+
+        this.ip += this.header() + 4;
+
+        this.out.put(this.op++, (byte) TAG_IP_ADDRESS);
+        this.out.put(this.op++, (byte) 4);
+        this.out.position(this.op).put(this.address, 0, 4);
+        this.op += 4;
+    }
+
+    private void sequence(final int end) {
+        final var tag = this.tag();
+        if (tag != TAG_INTEGER && tag != TAG_COUNTER32 && tag != TAG_GAUGE32) {
+            this.copy(end);
+            return;
+        }
+
+        final var length = this.length();
+        final var start = this.ip + this.header();
+        if (length < 1 || length > 5 || start + length > end) {
+            throw new IllegalArgumentException("Invalid sequence ID");
+        }
+
+        // Integers are signed, the application types are unsigned
+        long value = tag == TAG_INTEGER && this.in[start] < 0 ? -1L : 0L;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (this.in[start + i] & 0xff);
+        }
+
+        this.sequence = value;
+        this.ip = start + length;
+
+        value = tag == TAG_INTEGER
+                ? (int) (value + this.offset)
+                : (value + this.offset) & 0xffffffffL;
+
+        var size = 1;
+        while (size < 8 && (value < -(1L << (8 * size - 1)) || value >= (1L << (8 * size - 1)))) {
+            size++;
+        }
+
+        this.out.put(this.op++, (byte) tag);
+        this.out.put(this.op++, (byte) size);
+        for (int i = size - 1; i >= 0; i--) {
+            this.out.put(this.op++, (byte) (value >> (8 * i)));
+        }
+    }
+
+    /**
+     * Writes the tag of the sequence at the input position and reserves space for its length.
+     *
+     * @return the end of the sequence content in the input
+     */
+    private int enter(final int end) {
+        final var contentEnd = this.ip + this.header() + this.length();
+        if (contentEnd > end) {
+            throw new IllegalArgumentException("Sequence exceeds enclosing sequence");
+        }
+
+        this.out.put(this.op, this.in[this.ip]);
+        this.ip += this.header();
+        this.op += 1 + RESERVED;
+
+        return contentEnd;
+    }
+
+    /**
+     * Writes the length of the sequence started at the given output position and moves its content next to it.
+     */
+    private void leave(final int start) {
+        final var content = start + 1 + RESERVED;
+        final var length = this.op - content;
+
+        var header = 1;
+        if (length < 0x80) {
+            this.out.put(start + 1, (byte) length);
+        } else {
+            final var bytes = length < 0x100 ? 1 : length < 0x10000 ? 2 : length < 0x1000000 ? 3 : 4;
+            this.out.put(start + 1, (byte) (0x80 | bytes));
+            for (int i = 0; i < bytes; i++) {
+                this.out.put(start + 2 + i, (byte) (length >> (8 * (bytes - 1 - i))));
+            }
+            header += bytes;
+        }
+
+        // Bulk copies between views of the same buffer handle the overlap like System.arraycopy
+        final var source = this.out.duplicate();
+        source.limit(content + length).position(content);
+        this.out.position(start + 1 + header).put(source);
+        this.op = start + 1 + header + length;
+    }
+
+    private void copy(final int end) {
+        final var size = this.header() + this.length();
+        if (this.ip + size > end) {
+            throw new IllegalArgumentException("Element exceeds enclosing sequence");
+        }
+
+        this.out.position(this.op).put(this.in, this.ip, size);
+        this.ip += size;
+        this.op += size;
+    }
+
+    private void rest(final int end) {
+        while (this.ip < end) {
+            this.copy(end);
+        }
+    }
+
+    private int tag() {
+        return this.in[this.ip] & 0xff;
+    }
+
+    /**
+     * @return the size of tag and length of the element at the input position
+     */
+    private int header() {
+        final var first = this.in[this.ip + 1] & 0xff;
+        return first < 0x80
+                ? 2
+                : 2 + (first & 0x7f);
+    }
+
+    private int length() {
+        final var first = this.in[this.ip + 1] & 0xff;
+        if (first < 0x80) {
+            return first;
+        }
+
+        final var bytes = first & 0x7f;
+        if (bytes == 0 || bytes > 3) {
+            throw new IllegalArgumentException("Unsupported length");
+        }
+
+        var length = 0;
+        for (int i = 0; i < bytes; i++) {
+            length = (length << 8) | (this.in[this.ip + 2 + i] & 0xff);
+        }
+        return length;
+    }
+
+    private static boolean startsWith(final byte[] data, final int offset, final int length, final byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the BER encoded content of an OID
+     */
+    private static byte[] encode(final SnmpObjId oid) {
+        final var ids = oid.getIds();
+
+        final var result = new ByteArrayOutputStream();
+        encode(result, ids[0] * 40L + ids[1]);
+        for (int i = 2; i < ids.length; i++) {
+            encode(result, Integer.toUnsignedLong(ids[i]));
+        }
+        return result.toByteArray();
+    }
+
+    private static void encode(final ByteArrayOutputStream result, final long arc) {
+        var shift = 0;
+        while ((arc >> (shift + 7)) != 0) {
+            shift += 7;
+        }
+
+        for (; shift > 0; shift -= 7) {
+            result.write((int) (0x80 | ((arc >> shift) & 0x7f)));
+        }
+        result.write((int) (arc & 0x7f));
+    }
+}
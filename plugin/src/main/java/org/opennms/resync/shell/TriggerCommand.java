@@ -60,6 +60,10 @@ public class TriggerCommand implements Action {
     @Getter
     private String resyncId;
 
+    @Option(name = "priority", description = "Priority lane of the resync: interactive, targeted or bulk (case-insensitive)")
+    @Getter
+    private String priority = "targeted";
+
     @Argument(name = "kind")
     @Getter
     private String kind;
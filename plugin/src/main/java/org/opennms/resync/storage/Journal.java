@@ -0,0 +1,185 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.storage;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * A disk-backed set of records made of memory-mapped {@link Segment}s.
+ *
+ * Unlike the {@link Spool}, records can be consumed in any order. Records are appended to the newest segment and
+ * older segments are deleted as soon as all of their records have been consumed.
+ */
+@Slf4j
+public class Journal implements Closeable {
+    private static final String SUFFIX = ".jnl";
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    // Ordered from oldest to newest
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    private long nextId = 0;
+
+    public Journal(final Path directory, final int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+
+        final List<Long> ids;
+        try (final var files = Files.list(directory)) {
+            ids = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        for (final var id : ids) {
+            final var segment = Segment.open(this.path(id), id, segmentSize);
+            this.nextId = id + 1;
+
+            if (segment.getPending() == 0) {
+                segment.delete();
+                continue;
+            }
+
+            this.segments.put(id, segment);
+        }
+    }
+
+    /**
+     * @return all records which have not been consumed, from oldest to newest
+     */
+    public synchronized List<Entry> recover() {
+        final var result = new ArrayList<Entry>();
+        for (final var segment : this.segments.values()) {
+            var position = 0;
+            while (true) {
+                final var record = segment.read(position);
+                if (record == null) {
+                    break;
+                }
+
+                if (!record.isConsumed() && record.isCorrupt()) {
+                    log.warn("Corrupt record in segment {} at {} - skipping", segment.getPath(), record.getPosition());
+                    segment.consume(record);
+                } else if (!record.isConsumed()) {
+                    result.add(new Entry(segment.getId(), record.getPosition(), record.getData()));
+                }
+
+                position = record.getNext();
+            }
+        }
+        return result;
+    }
+
+    public synchronized Entry append(final byte[] data) throws IOException {
+        final var tail = this.segments.lastEntry();
+        if (tail != null) {
+            final var position = tail.getValue().write(data);
+            if (position >= 0) {
+                return new Entry(tail.getKey(), position, data);
+            }
+        }
+
+        final var segment = Segment.open(this.path(this.nextId), this.nextId, this.segmentSize);
+        this.nextId++;
+
+        final var position = segment.write(data);
+        if (position < 0) {
+            segment.delete();
+            throw new IOException("Record exceeds segment size: " + data.length);
+        }
+
+        this.segments.put(segment.getId(), segment);
+
+        // The previous tail will never be written again
+        if (tail != null && tail.getValue().getPending() == 0) {
+            this.segments.remove(tail.getKey()).delete();
+        }
+
+        return new Entry(segment.getId(), position, data);
+    }
+
+    public synchronized void consume(final Entry entry) throws IOException {
+        final var segment = this.segments.get(entry.segment);
+        if (segment == null) {
+            return;
+        }
+
+        segment.consume(entry.position);
+
+        if (segment.getPending() == 0 && segment != this.segments.lastEntry().getValue()) {
+            this.segments.remove(entry.segment).delete();
+        }
+    }
+
+    public synchronized int getSegments() {
+        return this.segments.size();
+    }
+
+    public synchronized long getPending() {
+        return this.segments.values().stream()
+                .mapToLong(Segment::getPending)
+                .sum();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (final var segment : this.segments.values()) {
+            segment.close();
+        }
+        this.segments.clear();
+    }
+
+    private Path path(final long id) {
+        return this.directory.resolve(String.format("%020d%s", id, SUFFIX));
+    }
+
+    @Getter
+    public static class Entry {
+        private final long segment;
+        private final int position;
+        private final byte[] data;
+
+        private Entry(final long segment, final int position, final byte[] data) {
+            this.segment = segment;
+            this.position = position;
+            this.data = data;
+        }
+    }
+}
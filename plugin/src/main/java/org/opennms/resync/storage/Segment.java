@@ -0,0 +1,212 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.storage;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed-size, memory-mapped, append-only file of CRC-checked records.
+ *
+ * Each record is stored as {@code [int length][int crc32][payload]}. A length of zero marks the end of the written
+ * data and a negative length marks a record which has been consumed. Records failing their CRC check are returned as
+ * corrupt so readers can skip them.
+ */
+@Slf4j
+public class Segment implements Closeable {
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    @Getter
+    private final Path path;
+
+    @Getter
+    private final long id;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private int writePosition;
+
+    @Getter
+    private int records;
+
+    @Getter
+    private int pending;
+
+    // Bytes occupied by records which have not been consumed
+    @Getter
+    private long pendingSize;
+
+    private Segment(final Path path, final long id, final int size) throws IOException {
+        this.path = path;
+        this.id = id;
+
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, this.channel.size()));
+
+        // Scan existing records to find the end of the written data
+        var position = 0;
+        while (true) {
+            final var record = this.read(position);
+            if (record == null) {
+                break;
+            }
+
+            this.records++;
+            if (!record.isConsumed()) {
+                this.pending++;
+                this.pendingSize += record.next - record.position;
+            }
+
+            position = record.next;
+        }
+
+        this.writePosition = position;
+    }
+
+    public static Segment open(final Path path, final long id, final int size) throws IOException {
+        return new Segment(path, id, size);
+    }
+
+    public int capacity() {
+        return this.buffer.capacity();
+    }
+
+    public int size() {
+        return this.writePosition;
+    }
+
+    public boolean append(final byte[] data) {
+        return this.write(data) >= 0;
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @return the position of the record or {@code -1} if the segment is full
+     */
+    public synchronized int write(final byte[] data) {
+        // Keep room for the terminating zero length
+        if (this.writePosition + HEADER_SIZE + data.length + Integer.BYTES > this.buffer.capacity()) {
+            return -1;
+        }
+
+        final var position = this.writePosition;
+
+        final var crc = new CRC32();
+        crc.update(data);
+
+        // Write the payload first and publish the length last to make torn writes detectable
+        this.buffer.duplicate().position(this.writePosition + HEADER_SIZE).put(data);
+        this.buffer.putInt(this.writePosition + Integer.BYTES, (int) crc.getValue());
+        this.buffer.putInt(this.writePosition + HEADER_SIZE + data.length, 0);
+        this.buffer.putInt(this.writePosition, data.length);
+
+        this.writePosition += HEADER_SIZE + data.length;
+        this.records++;
+        this.pending++;
+        this.pendingSize += HEADER_SIZE + data.length;
+
+        return position;
+    }
+
+    public synchronized Record read(final int position) {
+        if (position + HEADER_SIZE > this.buffer.capacity()) {
+            return null;
+        }
+
+        final var length = this.buffer.getInt(position);
+        if (length == 0) {
+            return null;
+        }
+
+        final var size = Math.abs(length);
+        if (size < 0 || position + HEADER_SIZE + size > this.buffer.capacity()) {
+            log.warn("Truncated record in segment {} at {} - ignoring remainder", this.path, position);
+            return null;
+        }
+
+        final var data = new byte[size];
+        this.buffer.duplicate().position(position + HEADER_SIZE).get(data);
+
+        final var crc = new CRC32();
+        crc.update(data);
+        final var corrupt = (int) crc.getValue() != this.buffer.getInt(position + Integer.BYTES);
+
+        return new Record(position, position + HEADER_SIZE + size, length < 0, corrupt, data);
+    }
+
+    public void consume(final Record record) {
+        this.consume(record.position);
+    }
+
+    public synchronized void consume(final int position) {
+        final var length = this.buffer.getInt(position);
+        if (length > 0) {
+            this.buffer.putInt(position, -length);
+            this.pending--;
+            this.pendingSize -= HEADER_SIZE + length;
+        }
+    }
+
+    public void force() {
+        this.buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.buffer.force();
+        this.channel.close();
+    }
+
+    public void delete() throws IOException {
+        this.close();
+        Files.deleteIfExists(this.path);
+    }
+
+    @Getter
+    public static class Record {
+        private final int position;
+        private final int next;
+        private final boolean consumed;
+        private final boolean corrupt;
+        private final byte[] data;
+
+        private Record(final int position, final int next, final boolean consumed, final boolean corrupt, final byte[] data) {
+            this.position = position;
+            this.next = next;
+            this.consumed = consumed;
+            this.corrupt = corrupt;
+            this.data = data;
+        }
+    }
+}
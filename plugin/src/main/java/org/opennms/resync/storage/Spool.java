@@ -0,0 +1,223 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.storage;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A size-capped, disk-backed FIFO queue made of memory-mapped {@link Segment}s.
+ *
+ * Records are consumed in the order they were appended. Fully consumed segments are deleted. Corrupt records are
+ * consumed and skipped when they reach the head of the queue.
+ */
+@Slf4j
+public class Spool implements Closeable {
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final long maxSize;
+
+    // Ordered from oldest to newest
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private int readPosition = 0;
+
+    private long nextId = 0;
+
+    @Getter
+    private long depth = 0;
+
+    @Getter
+    private long corrupted = 0;
+
+    public Spool(final Path directory, final int segmentSize, final long maxSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+
+        Files.createDirectories(directory);
+
+        final List<Long> ids;
+        try (final var files = Files.list(directory)) {
+            ids = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        for (final var id : ids) {
+            final var segment = Segment.open(this.path(id), id, segmentSize);
+            this.nextId = id + 1;
+
+            if (segment.getPending() == 0) {
+                segment.delete();
+                continue;
+            }
+
+            this.segments.addLast(segment);
+            this.depth += segment.getPending();
+        }
+
+        if (this.depth > 0) {
+            log.info("Recovered {} spooled records from {}", this.depth, directory);
+        }
+    }
+
+    public synchronized boolean append(final byte[] data) throws IOException {
+        final var payload = ByteBuffer.allocate(Long.BYTES + data.length)
+                .putLong(System.currentTimeMillis())
+                .put(data)
+                .array();
+
+        final var tail = this.segments.peekLast();
+        if (tail == null || !tail.append(payload)) {
+            if ((long) (this.segments.size() + 1) * this.segmentSize > this.maxSize) {
+                return false;
+            }
+
+            final var segment = Segment.open(this.path(this.nextId), this.nextId, this.segmentSize);
+            this.nextId++;
+
+            if (!segment.append(payload)) {
+                segment.delete();
+                throw new IOException("Record exceeds segment size: " + data.length);
+            }
+
+            this.segments.addLast(segment);
+        }
+
+        this.depth++;
+        return true;
+    }
+
+    public synchronized Entry peek() throws IOException {
+        while (true) {
+            final var head = this.segments.peekFirst();
+            if (head == null) {
+                return null;
+            }
+
+            final var record = head.read(this.readPosition);
+            if (record == null) {
+                if (head != this.segments.peekLast()) {
+                    // Head segment is exhausted and will never be written again
+                    this.segments.removeFirst().delete();
+                    this.readPosition = 0;
+                    continue;
+                }
+
+                return null;
+            }
+
+            if (record.isConsumed()) {
+                this.readPosition = record.getNext();
+                continue;
+            }
+
+            if (record.isCorrupt()) {
+                log.warn("Corrupt record in segment {} at {} - skipping", head.getPath(), record.getPosition());
+                head.consume(record);
+                this.readPosition = record.getNext();
+                this.depth--;
+                this.corrupted++;
+                continue;
+            }
+
+            return new Entry(head, record);
+        }
+    }
+
+    public synchronized void commit(final Entry entry) {
+        entry.segment.consume(entry.record);
+
+        this.readPosition = entry.record.getNext();
+        this.depth--;
+    }
+
+    public synchronized boolean isEmpty() {
+        return this.depth == 0;
+    }
+
+    /**
+     * @return the bytes occupied by records which have not been consumed
+     */
+    public synchronized long getSize() {
+        return this.segments.stream()
+                .mapToLong(Segment::getPendingSize)
+                .sum();
+    }
+
+    public synchronized void force() {
+        for (final var segment : this.segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (final var segment : this.segments) {
+            segment.close();
+        }
+        this.segments.clear();
+    }
+
+    private Path path(final long id) {
+        return this.directory.resolve(String.format("%020d%s", id, SUFFIX));
+    }
+
+    public static class Entry {
+        private final Segment segment;
+        private final Segment.Record record;
+
+        private Entry(final Segment segment, final Segment.Record record) {
+            this.segment = segment;
+            this.record = record;
+        }
+
+        public Instant getTimestamp() {
+            return Instant.ofEpochMilli(ByteBuffer.wrap(this.record.getData()).getLong());
+        }
+
+        public byte[] getData() {
+            final var data = this.record.getData();
+            return Arrays.copyOfRange(data, Long.BYTES, data.length);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync;
+
+import org.junit.Test;
+import org.opennms.resync.proto.Resync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AlarmCoalescerTest {
+
+    @Test
+    public void mergesRepeatedAlarms() {
+        final var coalescer = new AlarmCoalescer();
+
+        assertTrue(coalescer.add(alarm("a").setFirstEventTime(100).setLastEventTime(100).setDescription("first").build()));
+        assertTrue(coalescer.add(alarm("a").setFirstEventTime(300).setLastEventTime(300).setDescription("second").build()));
+        assertTrue(coalescer.add(alarm("a").setCount(3).setFirstEventTime(200).setLastEventTime(200).setDescription("third").build()));
+        assertEquals(1, coalescer.size());
+
+        final var alarms = drain(coalescer);
+        assertEquals(1, alarms.size());
+
+        final var alarm = alarms.get(0);
+        assertEquals("third", alarm.getDescription());
+        assertEquals(5, alarm.getCount());
+        assertEquals(100, alarm.getFirstEventTime());
+        assertEquals(300, alarm.getLastEventTime());
+    }
+
+    @Test
+    public void rejectsAlarmsWithoutReductionKey() {
+        final var coalescer = new AlarmCoalescer();
+
+        assertFalse(coalescer.add(Resync.Alarm.newBuilder().build()));
+        assertEquals(0, coalescer.size());
+    }
+
+    @Test
+    public void drainsInLastSeenOrder() {
+        final var coalescer = new AlarmCoalescer();
+
+        coalescer.add(alarm("a").build());
+        coalescer.add(alarm("b").setType(Resync.Alarm.Type.CLEAR).setClearKey("a").build());
+        coalescer.add(alarm("a").build());
+
+        // The repeated problem follows the clear, so the alarm stays raised
+        assertEquals(List.of("b", "a"), keys(drain(coalescer)));
+    }
+
+    @Test
+    public void drainResets() {
+        final var coalescer = new AlarmCoalescer();
+
+        coalescer.add(alarm("a").build());
+        drain(coalescer);
+        assertEquals(0, coalescer.size());
+
+        coalescer.add(alarm("a").build());
+        final var alarms = drain(coalescer);
+        assertEquals(1, alarms.size());
+        assertEquals(0, alarms.get(0).getCount());
+    }
+
+    @Test
+    public void holdsManyAlarms() {
+        final var coalescer = new AlarmCoalescer();
+
+        // Repeat every key a few times in rotation to move alarms and grow the table
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 1000; i++) {
+                coalescer.add(alarm("key-" + i).build());
+            }
+        }
+        coalescer.add(alarm("key-0").build());
+        assertEquals(1000, coalescer.size());
+
+        final var alarms = drain(coalescer);
+        assertEquals(1000, alarms.size());
+        assertEquals("key-1", alarms.get(0).getReductionKey());
+        assertEquals("key-0", alarms.get(999).getReductionKey());
+        assertEquals(3, alarms.get(0).getCount());
+        assertEquals(4, alarms.get(999).getCount());
+    }
+
+    private static Resync.Alarm.Builder alarm(final String reductionKey) {
+        return Resync.Alarm.newBuilder().setReductionKey(reductionKey);
+    }
+
+    private static List<Resync.Alarm> drain(final AlarmCoalescer coalescer) {
+        final var result = new ArrayList<Resync.Alarm>();
+        coalescer.drain(result::add);
+        return result;
+    }
+
+    private static List<String> keys(final List<Resync.Alarm> alarms) {
+        return alarms.stream()
+                .map(Resync.Alarm::getReductionKey)
+                .collect(Collectors.toList());
+    }
+}
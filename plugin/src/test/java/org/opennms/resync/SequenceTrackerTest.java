@@ -0,0 +1,127 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class SequenceTrackerTest {
+
+    @Test
+    public void update() {
+        final var tracker = new SequenceTracker();
+
+        assertEquals(SequenceTracker.NONE, tracker.get(1));
+        assertEquals(SequenceTracker.NONE, tracker.update(1, 10));
+        assertEquals(10, tracker.update(1, 11));
+        assertEquals(11, tracker.get(1));
+
+        assertEquals(SequenceTracker.NONE, tracker.update(2, 5));
+        assertEquals(2, tracker.size());
+    }
+
+    @Test
+    public void grows() {
+        final var tracker = new SequenceTracker(16);
+
+        for (long node = 1; node <= 10_000; node++) {
+            tracker.update(node, node * 2);
+        }
+
+        assertEquals(10_000, tracker.size());
+        for (long node = 1; node <= 10_000; node++) {
+            assertEquals(node * 2, tracker.get(node));
+        }
+    }
+
+    @Test
+    public void clear() {
+        final var tracker = new SequenceTracker();
+        tracker.update(1, 10);
+        tracker.clear();
+
+        assertEquals(0, tracker.size());
+        assertEquals(SequenceTracker.NONE, tracker.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNodeZero() {
+        new SequenceTracker().update(0, 1);
+    }
+
+    @Test
+    public void advanceKeepsNewerWithinWindow() {
+        final var tracker = new SequenceTracker();
+
+        assertEquals(SequenceTracker.NONE, tracker.advance(1, 100, 10));
+        assertEquals(100, tracker.advance(1, 105, 10));
+
+        // A late trap is reported but does not move the tracker back
+        assertEquals(105, tracker.advance(1, 96, 10));
+        assertEquals(105, tracker.get(1));
+    }
+
+    @Test
+    public void advanceResetsBeyondWindow() {
+        final var tracker = new SequenceTracker();
+
+        tracker.advance(1, 100, 10);
+        assertEquals(100, tracker.advance(1, 3, 10));
+        assertEquals(3, tracker.get(1));
+    }
+
+    @Test
+    public void advanceConcurrently() throws InterruptedException {
+        final var tracker = new SequenceTracker();
+
+        final var threads = new ArrayList<Thread>();
+        final var start = new CountDownLatch(1);
+        for (int t = 0; t < 4; t++) {
+            final var offset = t;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    return;
+                }
+
+                for (long sequence = offset; sequence < 100_000; sequence += 4) {
+                    tracker.advance(1, sequence, Long.MAX_VALUE);
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (final var thread : threads) {
+            thread.join();
+        }
+
+        // Without resets, the newest sequence ID wins regardless of the interleaving
+        assertEquals(99_999, tracker.get(1));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.flow;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    @Test
+    public void startsFull() {
+        final var bucket = new TokenBucket(10.0, 5.0);
+        assertEquals(5.0, bucket.available(), 0.1);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0L, bucket.tryReserve(1, 0));
+        }
+    }
+
+    @Test
+    public void overdrawWaits() {
+        final var bucket = new TokenBucket(10.0, 5.0);
+        assertEquals(0L, bucket.reserve(5));
+
+        // The sixth token takes a tenth of a second to refill
+        final var wait = bucket.reserve(1);
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(bucket.available() < 0.0);
+    }
+
+    @Test
+    public void rejectsWithoutReserving() {
+        final var bucket = new TokenBucket(10.0, 5.0);
+        assertEquals(0L, bucket.reserve(5));
+
+        assertEquals(-1L, bucket.tryReserve(1, TimeUnit.MILLISECONDS.toNanos(10)));
+        assertTrue(bucket.available() >= 0.0);
+    }
+
+    @Test
+    public void refillsOverTime() throws InterruptedException {
+        final var bucket = new TokenBucket(100.0, 1.0);
+        assertEquals(0L, bucket.reserve(1));
+
+        Thread.sleep(50);
+        assertEquals(1.0, bucket.available(), 0.0);
+    }
+
+    @Test
+    public void refundIsCappedAtCapacity() {
+        final var bucket = new TokenBucket(10.0, 5.0);
+        assertEquals(0L, bucket.reserve(3));
+
+        bucket.refund(2);
+        assertEquals(4.0, bucket.available(), 0.1);
+
+        bucket.refund(10);
+        assertEquals(5.0, bucket.available(), 0.0);
+    }
+
+    @Test
+    public void capacityOfAtLeastOne() {
+        final var bucket = new TokenBucket(10.0, 0.0);
+        assertEquals(1.0, bucket.available(), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidRate() {
+        new TokenBucket(0.0, 5.0);
+    }
+}
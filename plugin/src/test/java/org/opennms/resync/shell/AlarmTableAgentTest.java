@@ -0,0 +1,201 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.shell;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.resync.constants.MIB;
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.DefaultPDUFactory;
+import org.snmp4j.util.TableUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AlarmTableAgentTest {
+
+    private static final OID SEQUENCE_ID = new OID(MIB.OID_NIB_SEQUENCE_ID.toString() + ".0");
+
+    private static final List<String> COLUMNS = List.of("1.3.6.1.4.1.5813.99.1.1", "1.3.6.1.4.1.5813.99.1.2");
+
+    private static final OID TRAP_OID = new OID("1.3.6.1.4.1.5813.99.0.1");
+    private static final OID END_TRAP_OID = new OID("1.3.6.1.4.1.5813.99.0.2");
+
+    private Snmp snmp;
+
+    private DefaultUdpTransportMapping receiver;
+
+    private final BlockingQueue<PDU> traps = new LinkedBlockingQueue<>();
+
+    private AlarmTableAgent agent;
+
+    @Before
+    public void setUp() throws IOException {
+        this.receiver = new DefaultUdpTransportMapping(new UdpAddress(InetAddress.getLoopbackAddress(), 0));
+        this.snmp = new Snmp(this.receiver);
+        this.snmp.addCommandResponder(event -> {
+            if (event.getPDU() != null && event.getPDU().getType() == PDU.TRAP) {
+                this.traps.add(event.getPDU());
+                event.setProcessed(true);
+            }
+        });
+        this.snmp.listen();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (this.agent != null) {
+            this.agent.close();
+        }
+        this.snmp.close();
+    }
+
+    @Test
+    public void walk() throws IOException {
+        this.agent = AlarmTableAgent.builder()
+                .port(0)
+                .rows(250)
+                .columns(COLUMNS)
+                .build()
+                .start();
+
+        final var tables = new TableUtils(this.snmp, new DefaultPDUFactory(PDU.GETBULK));
+        tables.setMaxNumRowsPerPDU(10);
+
+        final var rows = tables.getTable(this.target(1000), new OID[]{new OID(COLUMNS.get(0)), new OID(COLUMNS.get(1))}, null, null);
+
+        assertEquals(250, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            final var row = rows.get(i);
+            assertFalse(row.isError());
+            assertEquals(new OID(new int[]{i + 1}), row.getIndex());
+            assertEquals(new Integer32(i + 1), row.getColumns()[0].getVariable());
+            assertEquals(new OctetString("alarm-" + (i + 1) + "-1"), row.getColumns()[1].getVariable());
+        }
+
+        assertTrue(this.agent.getRequests() >= 25);
+    }
+
+    @Test
+    public void setReplaysTableAsTraps() throws Exception {
+        this.agent = AlarmTableAgent.builder()
+                .port(0)
+                .rows(100)
+                .columns(COLUMNS)
+                .trapTarget(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.receiver.getListenAddress().getPort()))
+                .trapOid(TRAP_OID.toString())
+                .endTrapOid(END_TRAP_OID.toString())
+                .build()
+                .start();
+
+        // The sequence ID the replay will end at
+        assertEquals(new Counter32(100), this.get(SEQUENCE_ID));
+
+        final var set = new PDU();
+        set.setType(PDU.SET);
+        set.add(new VariableBinding(new OID("1.3.6.1.4.1.5813.99.2.0"), new Integer32(1)));
+
+        final var response = this.snmp.send(set, this.target(1000)).getResponse();
+        assertNotNull(response);
+        assertEquals(PDU.noError, response.getErrorStatus());
+        assertEquals(new Integer32(1), response.get(0).getVariable());
+
+        for (int row = 1; row <= 100; row++) {
+            final var trap = this.traps.poll(10, TimeUnit.SECONDS);
+            assertNotNull("Missing trap for row " + row, trap);
+            assertEquals(TRAP_OID, trap.getVariable(SnmpConstants.snmpTrapOID));
+            assertEquals(new Counter32(row), trap.getVariable(SEQUENCE_ID));
+            assertEquals(new Integer32(row), trap.getVariable(new OID(COLUMNS.get(0)).append(row)));
+        }
+
+        final var end = this.traps.poll(10, TimeUnit.SECONDS);
+        assertNotNull(end);
+        assertEquals(END_TRAP_OID, end.getVariable(SnmpConstants.snmpTrapOID));
+
+        assertEquals(1, this.agent.getSets());
+        assertEquals(101, this.agent.getTraps());
+
+        // The next replay continues the sequence
+        assertEquals(new Counter32(200), this.get(SEQUENCE_ID));
+    }
+
+    @Test
+    public void dropsRequests() throws IOException {
+        this.agent = AlarmTableAgent.builder()
+                .port(0)
+                .rows(10)
+                .loss(1.0)
+                .build()
+                .start();
+
+        final var get = new PDU();
+        get.setType(PDU.GET);
+        get.add(new VariableBinding(SEQUENCE_ID));
+
+        assertNull(this.snmp.send(get, this.target(200)).getResponse());
+        assertEquals(1, this.agent.getDropped());
+    }
+
+    private Variable get(final OID oid) throws IOException {
+        final var get = new PDU();
+        get.setType(PDU.GET);
+        get.add(new VariableBinding(oid));
+
+        final var response = this.snmp.send(get, this.target(1000)).getResponse();
+        assertNotNull(response);
+        return response.get(0).getVariable();
+    }
+
+    private CommunityTarget target(final long timeout) {
+        final var target = new CommunityTarget();
+        target.setCommunity(new OctetString("public"));
+        target.setVersion(SnmpConstants.version2c);
+        target.setAddress(new UdpAddress(InetAddress.getLoopbackAddress(), this.agent.getPort()));
+        target.setTimeout(timeout);
+        target.setRetries(0);
+        return target;
+    }
+}
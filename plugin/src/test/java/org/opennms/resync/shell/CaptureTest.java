@@ -0,0 +1,229 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.shell;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CaptureTest {
+
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_RAW = 101;
+
+    private static final byte PROTOCOL_TCP = 6;
+    private static final byte PROTOCOL_UDP = 17;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mapsEthernet() throws IOException {
+        final var file = this.pcap(ByteOrder.LITTLE_ENDIAN, LINKTYPE_ETHERNET,
+                ethernet(0x0800, ipv4(PROTOCOL_UDP, 0, udp(bytes("first")))),
+                ethernet(0x0800, ipv4(PROTOCOL_TCP, 0, new byte[20])),
+                ethernet(0x0800, ipv4(PROTOCOL_UDP, 0x2000, udp(bytes("fragment")))),
+                ethernet(0x86dd, ipv6(udp(bytes("second")))));
+
+        final var capture = Capture.map(file);
+
+        assertEquals(2, capture.size());
+        assertArrayEquals(bytes("first"), payload(capture, 0));
+        assertArrayEquals(bytes("second"), payload(capture, 1));
+
+        // Packets are spaced 1.5 seconds apart
+        assertEquals(1_000_000L, capture.timestamp(0));
+        assertEquals(5_500_000L, capture.timestamp(1));
+        assertEquals(4_500_000L, capture.duration());
+    }
+
+    @Test
+    public void mapsVlanTags() throws IOException {
+        final var file = this.pcap(ByteOrder.BIG_ENDIAN, LINKTYPE_ETHERNET,
+                vlan(ethernet(0x0800, ipv4(PROTOCOL_UDP, 0, udp(bytes("tagged"))))));
+
+        final var capture = Capture.map(file);
+
+        assertEquals(1, capture.size());
+        assertArrayEquals(bytes("tagged"), payload(capture, 0));
+    }
+
+    @Test
+    public void mapsRawIp() throws IOException {
+        final var file = this.pcap(ByteOrder.LITTLE_ENDIAN, LINKTYPE_RAW,
+                ipv4(PROTOCOL_UDP, 0, udp(bytes("v4"))),
+                ipv6(udp(bytes("v6"))));
+
+        final var capture = Capture.map(file);
+
+        assertEquals(2, capture.size());
+        assertArrayEquals(bytes("v4"), payload(capture, 0));
+        assertArrayEquals(bytes("v6"), payload(capture, 1));
+    }
+
+    @Test
+    public void matchesDecodedCapture() throws IOException {
+        final var file = this.pcap(ByteOrder.LITTLE_ENDIAN, LINKTYPE_ETHERNET,
+                ethernet(0x0800, ipv4(PROTOCOL_UDP, 0, udp(bytes("first")))),
+                ethernet(0x0800, ipv4(PROTOCOL_UDP, 0, udp(bytes("second")))));
+
+        final var mapped = Capture.map(file);
+        final var loaded = Capture.load(file);
+
+        assertEquals(loaded.size(), mapped.size());
+        for (int i = 0; i < loaded.size(); i++) {
+            assertArrayEquals(payload(loaded, i), payload(mapped, i));
+            assertEquals(loaded.timestamp(i), mapped.timestamp(i));
+        }
+    }
+
+    @Test
+    public void stopsAtTruncatedRecord() throws IOException {
+        final var file = this.pcap(ByteOrder.LITTLE_ENDIAN, LINKTYPE_ETHERNET,
+                ethernet(0x0800, ipv4(PROTOCOL_UDP, 0, udp(bytes("first")))),
+                ethernet(0x0800, ipv4(PROTOCOL_UDP, 0, udp(bytes("second")))));
+
+        final var data = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(data, data.length - 4));
+
+        final var capture = Capture.map(file);
+
+        assertEquals(1, capture.size());
+        assertArrayEquals(bytes("first"), payload(capture, 0));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        final var file = this.folder.newFile("capture.pcap");
+        Files.write(file.toPath(), new byte[64]);
+
+        Capture.map(file);
+    }
+
+    /**
+     * Writes a pcap file with microsecond timestamps and packets spaced 1.5 seconds apart starting at one second.
+     */
+    private File pcap(final ByteOrder order, final int linkType, final byte[]... frames) throws IOException {
+        final var buffer = ByteBuffer.allocate(64 * 1024).order(order);
+        buffer.putInt(0xa1b2c3d4);
+        buffer.putShort((short) 2);
+        buffer.putShort((short) 4);
+        buffer.putInt(0);
+        buffer.putInt(0);
+        buffer.putInt(65535);
+        buffer.putInt(linkType);
+
+        for (int i = 0; i < frames.length; i++) {
+            final var micros = 1_000_000L + i * 1_500_000L;
+            buffer.putInt((int) (micros / 1_000_000L));
+            buffer.putInt((int) (micros % 1_000_000L));
+            buffer.putInt(frames[i].length);
+            buffer.putInt(frames[i].length);
+            buffer.put(frames[i]);
+        }
+
+        final var file = this.folder.newFile("capture.pcap");
+        Files.write(file.toPath(), Arrays.copyOf(buffer.array(), buffer.position()));
+        return file;
+    }
+
+    private static byte[] ethernet(final int etherType, final byte[] network) {
+        return ByteBuffer.allocate(14 + network.length)
+                .put(new byte[12])
+                .putShort((short) etherType)
+                .put(network)
+                .array();
+    }
+
+    private static byte[] vlan(final byte[] frame) {
+        return ByteBuffer.allocate(frame.length + 4)
+                .put(frame, 0, 12)
+                .putShort((short) 0x8100)
+                .putShort((short) 42)
+                .put(frame, 12, frame.length - 12)
+                .array();
+    }
+
+    private static byte[] ipv4(final byte protocol, final int fragment, final byte[] transport) {
+        return ByteBuffer.allocate(20 + transport.length)
+                .put((byte) 0x45)
+                .put((byte) 0)
+                .putShort((short) (20 + transport.length))
+                .putShort((short) 1)
+                .putShort((short) fragment)
+                .put((byte) 64)
+                .put(protocol)
+                .putShort((short) 0)
+                .put(new byte[]{127, 0, 0, 1})
+                .put(new byte[]{127, 0, 0, 1})
+                .put(transport)
+                .array();
+    }
+
+    private static byte[] ipv6(final byte[] transport) {
+        final var address = new byte[16];
+        address[15] = 1;
+
+        return ByteBuffer.allocate(40 + transport.length)
+                .putInt(0x60000000)
+                .putShort((short) transport.length)
+                .put(PROTOCOL_UDP)
+                .put((byte) 64)
+                .put(address)
+                .put(address)
+                .put(transport)
+                .array();
+    }
+
+    private static byte[] udp(final byte[] payload) {
+        return ByteBuffer.allocate(8 + payload.length)
+                .putShort((short) 1162)
+                .putShort((short) 162)
+                .putShort((short) (8 + payload.length))
+                .putShort((short) 0)
+                .put(payload)
+                .array();
+    }
+
+    private static byte[] payload(final Capture capture, final int index) {
+        final var view = capture.select(capture.view(), index);
+        final var result = new byte[view.remaining()];
+        view.get(result);
+        return result;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
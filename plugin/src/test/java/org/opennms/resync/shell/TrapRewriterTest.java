@@ -0,0 +1,213 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.shell;
+
+import org.junit.Test;
+import org.opennms.resync.constants.MIB;
+import org.snmp4j.PDU;
+import org.snmp4j.PDUv1;
+import org.snmp4j.asn1.BER;
+import org.snmp4j.asn1.BERInputStream;
+import org.snmp4j.asn1.BEROutputStream;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.VariableBinding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TrapRewriterTest {
+
+    private static final OID SEQUENCE_ID = new OID(MIB.OID_NIB_SEQUENCE_ID.toString() + ".0");
+
+    private static final OID TRAP_ADDRESS = new OID(MIB.OID_SNMP_TRAP_ADDRESS.toString());
+
+    private static final byte[] ADDRESS = {10, 0, 0, 1};
+
+    @Test
+    public void rewritesV2Trap() throws IOException {
+        final var trap = new PDU();
+        trap.setType(PDU.TRAP);
+        trap.add(new VariableBinding(SnmpConstants.sysUpTime, new TimeTicks(1234)));
+        trap.add(new VariableBinding(SnmpConstants.snmpTrapOID, new OID("1.3.6.1.4.1.5813.1.1")));
+        trap.add(new VariableBinding(TRAP_ADDRESS, new IpAddress("192.168.0.1")));
+        trap.add(new VariableBinding(SEQUENCE_ID, new Counter32(100)));
+        trap.add(new VariableBinding(new OID("1.3.6.1.4.1.5813.1.2"), new OctetString("payload")));
+
+        final var rewriter = new TrapRewriter();
+        final var result = decode(rewrite(rewriter, encode(SnmpConstants.version2c, trap), ADDRESS, 1000));
+
+        assertEquals(100, rewriter.getSequence());
+        assertEquals(PDU.TRAP, result.getType());
+        assertEquals(5, result.size());
+        assertEquals(new IpAddress("10.0.0.1"), result.getVariable(TRAP_ADDRESS));
+        assertEquals(new Counter32(1100), result.getVariable(SEQUENCE_ID));
+        assertEquals(new OctetString("payload"), result.getVariable(new OID("1.3.6.1.4.1.5813.1.2")));
+    }
+
+    @Test
+    public void keepsAddressWithoutReplacement() throws IOException {
+        final var trap = new PDU();
+        trap.setType(PDU.INFORM);
+        trap.add(new VariableBinding(TRAP_ADDRESS, new IpAddress("192.168.0.1")));
+        trap.add(new VariableBinding(SEQUENCE_ID, new Integer32(7)));
+
+        final var rewriter = new TrapRewriter();
+        final var result = decode(rewrite(rewriter, encode(SnmpConstants.version2c, trap), null, 0));
+
+        assertEquals(7, rewriter.getSequence());
+        assertEquals(new IpAddress("192.168.0.1"), result.getVariable(TRAP_ADDRESS));
+        assertEquals(new Integer32(7), result.getVariable(SEQUENCE_ID));
+    }
+
+    @Test
+    public void wrapsCounters() throws IOException {
+        final var trap = new PDU();
+        trap.setType(PDU.TRAP);
+        trap.add(new VariableBinding(SEQUENCE_ID, new Counter32(0xfffffff0L)));
+
+        final var result = decode(rewrite(new TrapRewriter(), encode(SnmpConstants.version2c, trap), null, 0x20));
+
+        assertEquals(new Counter32(0x10), result.getVariable(SEQUENCE_ID));
+    }
+
+    @Test
+    public void growsLengths() throws IOException {
+        // The sequence ID grows by a byte, which grows all enclosing sequences
+        final var trap = new PDU();
+        trap.setType(PDU.TRAP);
+        trap.add(new VariableBinding(new OID("1.3.6.1.4.1.5813.1.2"), new OctetString(new byte[90])));
+        trap.add(new VariableBinding(SEQUENCE_ID, new Counter32(0x7f)));
+
+        final var result = decode(rewrite(new TrapRewriter(), encode(SnmpConstants.version2c, trap), null, 1));
+
+        assertEquals(2, result.size());
+        assertEquals(new OctetString(new byte[90]), result.get(0).getVariable());
+        assertEquals(new Counter32(0x80), result.getVariable(SEQUENCE_ID));
+    }
+
+    @Test
+    public void rewritesV1Trap() throws IOException {
+        final var trap = new PDUv1();
+        trap.setType(PDU.V1TRAP);
+        trap.setEnterprise(new OID("1.3.6.1.4.1.5813"));
+        trap.setAgentAddress(new IpAddress("192.168.0.1"));
+        trap.setGenericTrap(PDUv1.ENTERPRISE_SPECIFIC);
+        trap.setSpecificTrap(1);
+        trap.setTimestamp(1234);
+        trap.add(new VariableBinding(SEQUENCE_ID, new Counter32(5)));
+
+        final var rewriter = new TrapRewriter();
+        final var out = rewrite(rewriter, encode(SnmpConstants.version1, trap), ADDRESS, 10);
+
+        final var in = new BERInputStream(ByteBuffer.wrap(out));
+        BER.decodeHeader(in, new BER.MutableByte());
+        new Integer32().decodeBER(in);
+        new OctetString().decodeBER(in);
+        final var result = new PDUv1();
+        result.decodeBER(in);
+
+        assertEquals(5, rewriter.getSequence());
+        assertEquals(new IpAddress("10.0.0.1"), result.getAgentAddress());
+        assertEquals(new OID("1.3.6.1.4.1.5813"), result.getEnterprise());
+        assertEquals(new Counter32(15), result.getVariable(SEQUENCE_ID));
+    }
+
+    @Test
+    public void rejectsOtherPdus() throws IOException {
+        final var get = new PDU();
+        get.setType(PDU.GET);
+        get.add(new VariableBinding(SEQUENCE_ID));
+
+        final var in = encode(SnmpConstants.version2c, get);
+        assertEquals(-1, new TrapRewriter().rewrite(in, in.length, new byte[in.length + 64], ADDRESS, 0));
+    }
+
+    @Test
+    public void rewritesIntoDirectBuffer() throws IOException {
+        final var trap = new PDU();
+        trap.setType(PDU.TRAP);
+        trap.add(new VariableBinding(SnmpConstants.sysUpTime, new TimeTicks(1234)));
+        trap.add(new VariableBinding(SnmpConstants.snmpTrapOID, new OID("1.3.6.1.4.1.5813.1.1")));
+        trap.add(new VariableBinding(TRAP_ADDRESS, new IpAddress("192.168.0.1")));
+        trap.add(new VariableBinding(SEQUENCE_ID, new Counter32(100)));
+        trap.add(new VariableBinding(new OID("1.3.6.1.4.1.5813.1.2"), new OctetString("x".repeat(300))));
+
+        final var in = encode(SnmpConstants.version2c, trap);
+        final var expected = rewrite(new TrapRewriter(), in, ADDRESS, 1000);
+
+        final var out = ByteBuffer.allocateDirect(in.length + 64);
+        final var length = new TrapRewriter().rewrite(in, in.length, out, ADDRESS, 1000);
+
+        final var actual = new byte[length];
+        out.clear().get(actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void rejectsGarbage() {
+        final var in = new byte[]{0x30, 0x10, 0x02, 0x01, 0x01};
+        assertEquals(-1, new TrapRewriter().rewrite(in, in.length, new byte[64], ADDRESS, 0));
+    }
+
+    private static byte[] rewrite(final TrapRewriter rewriter, final byte[] in, final byte[] address, final long offset) {
+        final var out = new byte[in.length + 64];
+        final var length = rewriter.rewrite(in, in.length, out, address, offset);
+        return Arrays.copyOf(out, length);
+    }
+
+    private static byte[] encode(final int version, final PDU pdu) throws IOException {
+        final var versionField = new Integer32(version);
+        final var community = new OctetString("public");
+
+        final var length = versionField.getBERLength() + community.getBERLength() + pdu.getBERLength();
+
+        final var out = new BEROutputStream(ByteBuffer.allocate(length + 8));
+        BER.encodeHeader(out, BER.SEQUENCE, length);
+        versionField.encodeBER(out);
+        community.encodeBER(out);
+        pdu.encodeBER(out);
+
+        return Arrays.copyOf(out.getBuffer().array(), out.getBuffer().position());
+    }
+
+    private static PDU decode(final byte[] data) throws IOException {
+        final var in = new BERInputStream(ByteBuffer.wrap(data));
+        BER.decodeHeader(in, new BER.MutableByte());
+        new Integer32().decodeBER(in);
+        new OctetString().decodeBER(in);
+
+        final var pdu = new PDU();
+        pdu.decodeBER(in);
+        return pdu;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.opennms.resync.storage.SegmentTest.bytes;
+import static org.opennms.resync.storage.SegmentTest.flip;
+
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void consumeInAnyOrder() throws IOException {
+        try (final var journal = new Journal(this.folder.getRoot().toPath(), 1024)) {
+            final var first = journal.append(bytes("first"));
+            final var second = journal.append(bytes("second"));
+            final var third = journal.append(bytes("third"));
+            assertEquals(3, journal.getPending());
+
+            journal.consume(second);
+            journal.consume(first);
+            assertEquals(1, journal.getPending());
+
+            final var recovered = journal.recover();
+            assertEquals(1, recovered.size());
+            assertArrayEquals(third.getData(), recovered.get(0).getData());
+        }
+    }
+
+    @Test
+    public void deletesConsumedSegments() throws IOException {
+        try (final var journal = new Journal(this.folder.getRoot().toPath(), 64)) {
+            // Each record takes 8 + 20 bytes, so two of them fill a segment
+            final var first = journal.append(new byte[20]);
+            final var second = journal.append(new byte[20]);
+            final var third = journal.append(new byte[20]);
+            assertEquals(2, journal.getSegments());
+
+            journal.consume(first);
+            assertEquals(2, journal.getSegments());
+
+            journal.consume(second);
+            assertEquals(1, journal.getSegments());
+
+            // The tail is kept for further appends
+            journal.consume(third);
+            assertEquals(1, journal.getSegments());
+            assertEquals(0, journal.getPending());
+        }
+    }
+
+    @Test
+    public void recoversAfterReopen() throws IOException {
+        final var directory = this.folder.getRoot().toPath();
+
+        try (final var journal = new Journal(directory, 64)) {
+            journal.consume(journal.append(bytes("first")));
+            journal.append(bytes("second"));
+            journal.append(bytes("third"));
+            journal.append(bytes("fourth"));
+        }
+
+        try (final var journal = new Journal(directory, 64)) {
+            final var recovered = journal.recover();
+            assertEquals(List.of("second", "third", "fourth"), recovered.stream()
+                    .map(entry -> new String(entry.getData()))
+                    .collect(Collectors.toList()));
+
+            // Recovered entries can be consumed like appended ones
+            recovered.forEach(entry -> {
+                try {
+                    journal.consume(entry);
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertEquals(0, journal.getPending());
+        }
+    }
+
+    @Test
+    public void skipsCorruptRecords() throws IOException {
+        final var directory = this.folder.getRoot().toPath();
+
+        try (final var journal = new Journal(directory, 1024)) {
+            journal.append(bytes("first"));
+            journal.append(bytes("second"));
+        }
+
+        flip(directory.resolve(String.format("%020d.jnl", 0)), 8);
+
+        try (final var journal = new Journal(directory, 1024)) {
+            final var recovered = journal.recover();
+            assertEquals(1, recovered.size());
+            assertArrayEquals(bytes("second"), recovered.get(0).getData());
+
+            // The corrupt record is consumed and not recovered again
+            assertEquals(1, journal.getPending());
+            assertEquals(1, journal.recover().size());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeAndRead() throws IOException {
+        final var path = this.folder.getRoot().toPath().resolve("0.seg");
+
+        try (final var segment = Segment.open(path, 0, 1024)) {
+            final var first = segment.write(bytes("first"));
+            final var second = segment.write(bytes("second"));
+
+            assertEquals(0, first);
+            assertEquals(2, segment.getRecords());
+            assertEquals(2, segment.getPending());
+            assertEquals(8 + 5 + 8 + 6, segment.getPendingSize());
+
+            final var record = segment.read(first);
+            assertArrayEquals(bytes("first"), record.getData());
+            assertEquals(second, record.getNext());
+            assertFalse(record.isConsumed());
+            assertFalse(record.isCorrupt());
+
+            assertArrayEquals(bytes("second"), segment.read(second).getData());
+            assertNull(segment.read(segment.read(second).getNext()));
+        }
+    }
+
+    @Test
+    public void fullSegment() throws IOException {
+        final var path = this.folder.getRoot().toPath().resolve("0.seg");
+
+        try (final var segment = Segment.open(path, 0, 64)) {
+            assertTrue(segment.append(new byte[40]));
+            assertEquals(-1, segment.write(new byte[40]));
+            assertEquals(1, segment.getRecords());
+        }
+    }
+
+    @Test
+    public void reopenRestoresState() throws IOException {
+        final var path = this.folder.getRoot().toPath().resolve("0.seg");
+
+        try (final var segment = Segment.open(path, 0, 1024)) {
+            segment.write(bytes("first"));
+            segment.write(bytes("second"));
+            segment.consume(0);
+        }
+
+        try (final var segment = Segment.open(path, 0, 1024)) {
+            assertEquals(2, segment.getRecords());
+            assertEquals(1, segment.getPending());
+            assertEquals(8 + 6, segment.getPendingSize());
+            assertTrue(segment.read(0).isConsumed());
+
+            // Appends continue after the existing records
+            final var third = segment.write(bytes("third"));
+            assertEquals(8 + 5 + 8 + 6, third);
+        }
+    }
+
+    @Test
+    public void consumeTwice() throws IOException {
+        final var path = this.folder.getRoot().toPath().resolve("0.seg");
+
+        try (final var segment = Segment.open(path, 0, 1024)) {
+            final var record = segment.read(segment.write(bytes("first")));
+            segment.consume(record);
+            segment.consume(record);
+
+            assertEquals(0, segment.getPending());
+            assertEquals(0, segment.getPendingSize());
+        }
+    }
+
+    @Test
+    public void detectsCorruptRecords() throws IOException {
+        final var path = this.folder.getRoot().toPath().resolve("0.seg");
+
+        try (final var segment = Segment.open(path, 0, 1024)) {
+            segment.write(bytes("first"));
+            segment.write(bytes("second"));
+        }
+
+        flip(path, 8);
+
+        try (final var segment = Segment.open(path, 0, 1024)) {
+            final var first = segment.read(0);
+            assertTrue(first.isCorrupt());
+
+            // The length is still intact, so the following records stay readable
+            final var second = segment.read(first.getNext());
+            assertFalse(second.isCorrupt());
+            assertArrayEquals(bytes("second"), second.getData());
+        }
+    }
+
+    @Test
+    public void ignoresTruncatedRecords() throws IOException {
+        final var path = this.folder.getRoot().toPath().resolve("0.seg");
+
+        try (final var segment = Segment.open(path, 0, 64)) {
+            segment.write(bytes("first"));
+        }
+
+        // A length pointing past the end of the segment
+        try (final var file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(13);
+            file.writeInt(1024);
+        }
+
+        try (final var segment = Segment.open(path, 0, 64)) {
+            assertEquals(1, segment.getRecords());
+            assertEquals(13, segment.size());
+            assertNull(segment.read(13));
+        }
+    }
+
+    static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static void flip(final Path path, final long position) throws IOException {
+        try (final var file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(position);
+            final var value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xff);
+        }
+    }
+}
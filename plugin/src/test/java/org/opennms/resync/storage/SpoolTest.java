@@ -0,0 +1,163 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.resync.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.resync.storage.SegmentTest.bytes;
+import static org.opennms.resync.storage.SegmentTest.flip;
+
+public class SpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void firstInFirstOut() throws IOException {
+        try (final var spool = new Spool(this.folder.getRoot().toPath(), 64, 1024)) {
+            assertTrue(spool.isEmpty());
+            assertNull(spool.peek());
+
+            // Each record takes 8 + 8 + 5 bytes, so three records span several segments
+            for (final var value : new String[]{"one--", "two--", "three"}) {
+                assertTrue(spool.append(bytes(value)));
+            }
+            assertEquals(3, spool.getDepth());
+            assertEquals(3 * (8 + 8 + 5), spool.getSize());
+
+            for (final var value : new String[]{"one--", "two--", "three"}) {
+                final var entry = spool.peek();
+                assertArrayEquals(bytes(value), entry.getData());
+                spool.commit(entry);
+            }
+
+            assertTrue(spool.isEmpty());
+            assertNull(spool.peek());
+            assertEquals(0, spool.getSize());
+        }
+    }
+
+    @Test
+    public void peekWithoutCommit() throws IOException {
+        try (final var spool = new Spool(this.folder.getRoot().toPath(), 1024, 4096)) {
+            spool.append(bytes("one"));
+
+            final var entry = spool.peek();
+            assertArrayEquals(bytes("one"), spool.peek().getData());
+            assertFalse(entry.getTimestamp().isAfter(Instant.now()));
+        }
+    }
+
+    @Test
+    public void rejectsWhenFull() throws IOException {
+        try (final var spool = new Spool(this.folder.getRoot().toPath(), 64, 128)) {
+            var appended = 0;
+            while (spool.append(new byte[4])) {
+                appended++;
+            }
+
+            // Three records of 8 + 8 + 4 bytes fit into each of the two segments
+            assertEquals(6, appended);
+            assertEquals(6, spool.getDepth());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOversizedRecords() throws IOException {
+        try (final var spool = new Spool(this.folder.getRoot().toPath(), 64, 1024)) {
+            spool.append(new byte[64]);
+        }
+    }
+
+    @Test
+    public void recoversAfterReopen() throws IOException {
+        final var directory = this.folder.getRoot().toPath();
+
+        try (final var spool = new Spool(directory, 64, 1024)) {
+            spool.append(bytes("one--"));
+            spool.append(bytes("two--"));
+            spool.append(bytes("three"));
+            spool.commit(spool.peek());
+        }
+
+        try (final var spool = new Spool(directory, 64, 1024)) {
+            assertEquals(2, spool.getDepth());
+            assertArrayEquals(bytes("two--"), spool.peek().getData());
+        }
+    }
+
+    @Test
+    public void deletesConsumedSegments() throws IOException {
+        final var directory = this.folder.getRoot().toPath();
+
+        try (final var spool = new Spool(directory, 64, 1024)) {
+            for (int i = 0; i < 6; i++) {
+                spool.append(bytes("value"));
+            }
+            while (!spool.isEmpty()) {
+                spool.commit(spool.peek());
+            }
+            assertNull(spool.peek());
+        }
+
+        try (final var files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void skipsCorruptRecords() throws IOException {
+        final var directory = this.folder.getRoot().toPath();
+
+        try (final var spool = new Spool(directory, 1024, 4096)) {
+            spool.append(bytes("one"));
+            spool.append(bytes("two"));
+        }
+
+        // Flip a byte of the payload of the first record behind its header and timestamp
+        flip(directory.resolve(String.format("%020d.seg", 0)), 8 + 8);
+
+        try (final var spool = new Spool(directory, 1024, 4096)) {
+            assertEquals(2, spool.getDepth());
+
+            final var entry = spool.peek();
+            assertArrayEquals(bytes("two"), entry.getData());
+            assertEquals(1, spool.getCorrupted());
+            assertEquals(1, spool.getDepth());
+
+            spool.commit(entry);
+            assertTrue(spool.isEmpty());
+        }
+    }
+}